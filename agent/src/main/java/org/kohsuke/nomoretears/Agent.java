@@ -0,0 +1,95 @@
+package org.kohsuke.nomoretears;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Java agent that transforms classes with {@link ClassTransformer} as they are loaded, for the jars
+ * that are deployed as they are and therefore can't be processed at build time.
+ *
+ * <pre>
+ * java -javaagent:no-more-tears-agent.jar="transform=org.acme.**;cache=/var/cache/no-more-tears" ...
+ * </pre>
+ *
+ * <p>
+ * Options are separated by ';', and those that take rules can be repeated:
+ * <dl>
+ * <dt>transform=GLOB
+ * <dd>Classes to transform, such as "org.acme.**". Required.
+ * <dt>include=RULE, exclude=RULE, linkPlatform=true, linkLocal=true
+ * <dd>Narrow down the references that are lazily linked. See {@link LinkPolicy}.
+ * <dt>callSiteTable=true
+ * <dd>Lists the references of each class in {@link CallSiteTable}, for batch linking.
+ * <dt>cache=DIR
+ * <dd>Keeps the transformed classes in this directory, so that the later runs don't have to transform them again.
+ * <dt>report=FILE
+ * <dd>Writes how long each class took to transform into this file when the JVM exits.
+ * </dl>
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Agent {
+    public static void premain(String args, Instrumentation inst) throws IOException {
+        install(args, inst);
+    }
+
+    /**
+     * When attached to a running JVM, only the classes loaded from then on are transformed.
+     */
+    public static void agentmain(String args, Instrumentation inst) throws IOException {
+        install(args, inst);
+    }
+
+    private static void install(String args, Instrumentation inst) throws IOException {
+        List<Pattern> targets = new ArrayList<>();
+        LinkPolicy policy = new LinkPolicy();
+        File cache = null;
+        File report = null;
+
+        if (args!=null) {
+            for (String opt : args.split(";")) {
+                opt = opt.trim();
+                if (opt.isEmpty())  continue;
+                int idx = opt.indexOf('=');
+                String key = idx<0 ? opt : opt.substring(0,idx);
+                String value = idx<0 ? "" : opt.substring(idx+1);
+                switch (key) {
+                case "transform":       targets.add(LinkPolicy.glob(value)); break;
+                case "include":         policy.include(value); break;
+                case "exclude":         policy.exclude(value); break;
+                case "linkPlatform":    policy.setLinkPlatform(Boolean.parseBoolean(value)); break;
+                case "linkLocal":       policy.setLinkLocal(Boolean.parseBoolean(value)); break;
+                case "callSiteTable":   policy.setCallSiteTable(Boolean.parseBoolean(value)); break;
+                case "cache":           cache = new File(value); break;
+                case "report":          report = new File(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option "+key+" to the no-more-tears agent");
+                }
+            }
+        }
+        if (targets.isEmpty())
+            throw new IllegalArgumentException("The no-more-tears agent needs at least one transform=GLOB option");
+
+        final LoadTimeTransformer t = new LoadTimeTransformer(targets, policy,
+                cache!=null ? new TransformedClassCache(cache, policy) : null, report!=null);
+        inst.addTransformer(t);
+
+        if (report!=null) {
+            final File r = report;
+            Runtime.getRuntime().addShutdownHook(new Thread("no-more-tears report") {
+                @Override
+                public void run() {
+                    try {
+                        t.writeReport(r);
+                    } catch (IOException e) {
+                        System.err.println("Failed to write "+r+": "+e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.instrument.ClassFileTransformer;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+
+/**
+ * Applies {@link ClassTransformer} to the classes that {@link Agent} is told to, as they are loaded.
+ *
+ * <p>
+ * Only the classes of the class loaders that can see the runtime are transformed, as the transformed
+ * classes refer to it.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class LoadTimeTransformer implements ClassFileTransformer {
+    private final List<Pattern> targets;
+    private final LinkPolicy policy;
+    /**
+     * Null if the transformed classes aren't cached.
+     */
+    private final TransformedClassCache cache;
+
+    /**
+     * Class hierarchy as seen by each class loader, for computing frames.
+     */
+    private final Map<ClassLoader,TypeHierarchy> hierarchies = new WeakHashMap<>();
+
+    /**
+     * Null unless the report is going to be written.
+     */
+    private final Queue<Record> records;
+
+    /**
+     * Set once a failure has been logged as a warning. The rest are only logged at {@link Level#FINE}.
+     */
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    LoadTimeTransformer(List<Pattern> targets, LinkPolicy policy, TransformedClassCache cache, boolean report) {
+        this.targets = targets;
+        this.policy = policy;
+        this.cache = cache;
+        this.records = report ? new ConcurrentLinkedQueue<Record>() : null;
+    }
+
+    /**
+     * What happened to a class, for the report.
+     */
+    private static final class Record {
+        final String className;
+        final long nanos;
+        final String outcome;
+
+        Record(String className, long nanos, String outcome) {
+            this.className = className;
+            this.nanos = nanos;
+            this.outcome = outcome;
+        }
+    }
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain pd, byte[] image) {
+        if (className==null || classBeingRedefined!=null || !isTarget(className) || isOwn(pd) || !seesRuntime(loader))
+            return null;
+        if (ClassTransformer.isTransformed(image,0,image.length))
+            return null;
+
+        long start = System.nanoTime();
+        String outcome;
+        byte[] result = null;
+        try {
+            TypeHierarchy h = hierarchy(loader);
+            String key = null;
+            byte[] cached = null;
+            if (cache!=null) {
+                key = cache.key(image);
+                cached = cache.get(key, h);
+            }
+            if (cached!=null) {
+                result = cached.length==0 ? null : cached;
+                outcome = "cached";
+            } else {
+                Map<String,String> superClasses = new LinkedHashMap<>();
+                result = transform(h, image, superClasses);
+                outcome = result==null ? "unchanged" : "transformed";
+                if (cache!=null)
+                    cache.put(key, result, superClasses);
+            }
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable t) {
+            // the class is loaded as it is, which is no worse than not having the agent
+            result = null;
+            outcome = "failed: "+t;
+            if (warned.compareAndSet(false,true))
+                LOGGER.log(Level.WARNING, "Failed to transform "+className+", which is loaded as it is. Other such failures are logged at FINE", t);
+            else
+                LOGGER.log(Level.FINE, "Failed to transform "+className, t);
+        }
+        if (records!=null)
+            records.add(new Record(className, System.nanoTime()-start, outcome));
+        return result;
+    }
+
+    private boolean isTarget(String className) {
+        for (Pattern p : targets)
+            if (p.matcher(className).matches())
+                return true;
+        return false;
+    }
+
+    /**
+     * Is the class a part of the runtime or the agent itself? Transforming them would make the runtime
+     * link its own classes.
+     */
+    private static boolean isOwn(ProtectionDomain pd) {
+        CodeSource cs = pd!=null ? pd.getCodeSource() : null;
+        return cs!=null && cs.getLocation()!=null && OWN.contains(cs.getLocation().toString());
+    }
+
+    private static final Set<String> OWN = new HashSet<>();
+
+    static {
+        for (Class<?> c : new Class<?>[] {LinkerBootstrap.class, ClassTransformer.class}) {
+            CodeSource cs = c.getProtectionDomain().getCodeSource();
+            if (cs!=null && cs.getLocation()!=null)
+                OWN.add(cs.getLocation().toString());
+        }
+    }
+
+    /**
+     * Is the given class loader the one that loaded the runtime, or one of its descendants?
+     */
+    private static boolean seesRuntime(ClassLoader loader) {
+        ClassLoader runtime = LinkerBootstrap.class.getClassLoader();
+        for (ClassLoader cl=loader; cl!=null; cl=cl.getParent())
+            if (cl==runtime)
+                return true;
+        return false;
+    }
+
+    private TypeHierarchy hierarchy(ClassLoader loader) {
+        synchronized (hierarchies) {
+            TypeHierarchy h = hierarchies.get(loader);
+            if (h==null)
+                hierarchies.put(loader, h=new TypeHierarchy(loader));
+            return h;
+        }
+    }
+
+    /**
+     * @param superClasses
+     *      Receives the common super classes that the frames were computed from, keyed by the pair of
+     *      the class names separated by a space, for {@link TransformedClassCache} to tell when they change.
+     * @return
+     *      null if the class has nothing to be linked lazily.
+     */
+    private byte[] transform(final TypeHierarchy h, byte[] image, final Map<String,String> superClasses) {
+        ClassReader cr = new ClassReader(image);
+        ClassWriter cw = new ClassWriter(cr, COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                String r = h.getCommonSuperClass(type1, type2);
+                superClasses.put(type1+' '+type2, r);
+                return r;
+            }
+        };
+        ClassTransformer ct = new ClassTransformer(cw, policy);
+        try {
+            ct.transform(cr);
+        } catch (AlreadyUpToDate e) {
+            return null;
+        }
+        if (ct.getSites().isEmpty())
+            return null;
+        return cw.toByteArray();
+    }
+
+    /**
+     * Writes the time spent on each class so far, slowest first.
+     */
+    void writeReport(File file) throws IOException {
+        List<Record> list = records!=null ? new ArrayList<>(records) : Collections.<Record>emptyList();
+        Collections.sort(list, new Comparator<Record>() {
+            public int compare(Record a, Record b) {
+                return Long.compare(b.nanos, a.nanos);
+            }
+        });
+
+        long total = 0;
+        int cached = 0;
+        for (Record r : list) {
+            total += r.nanos;
+            if (r.outcome.equals("cached"))
+                cached++;
+        }
+
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            w.printf("# %d classes, %d from the cache, %.3f ms in total%n", list.size(), cached, total/1000000.0);
+            for (Record r : list)
+                w.printf("%s\t%.3f\t%s%n", r.className.replace('/','.'), r.nanos/1000000.0, r.outcome);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LoadTimeTransformer.class.getName());
+}
@@ -0,0 +1,162 @@
+package org.kohsuke.nomoretears;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * On-disk cache of transformed classes, addressed by the hash of the original class file,
+ * the transformer, and the {@link LinkPolicy}, so that it never hands out a stale result.
+ *
+ * <p>
+ * The frames of a transformed class also depend on the super classes of the classes it refers to, which
+ * can come from other jars. So each entry records the common super classes that its frames were computed from,
+ * and is only used if the class loader still sees the same ones.
+ *
+ * <p>
+ * An empty file records that the class is left as it is. Otherwise the file has the number of the common super
+ * classes, each as the two classes and their common super class, followed by the transformed class.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class TransformedClassCache {
+    private final File dir;
+
+    /**
+     * Digest of the transformer and the policy, which every key starts from.
+     */
+    private final byte[] salt;
+
+    /**
+     * Bumped when the layout of the files changes, so that the old ones aren't misread.
+     */
+    private static final String FORMAT = "2";
+
+    TransformedClassCache(File dir, LinkPolicy policy) throws IOException {
+        this.dir = dir;
+        MessageDigest md = newDigest();
+        md.update(FORMAT.getBytes(StandardCharsets.UTF_8));
+        md.update(transformerImage());
+        md.update(policy.getFingerprint().getBytes(StandardCharsets.UTF_8));
+        this.salt = md.digest();
+    }
+
+    /**
+     * Reads the code of the transformer, so that a different build of it doesn't reuse the entries.
+     * That's the whole jar when it's packaged, which it normally is.
+     */
+    private static byte[] transformerImage() throws IOException {
+        CodeSource cs = ClassTransformer.class.getProtectionDomain().getCodeSource();
+        if (cs!=null) {
+            try {
+                URL u = cs.getLocation();
+                File f = u!=null && u.getProtocol().equals("file") ? new File(u.toURI()) : null;
+                if (f!=null && f.isFile())
+                    return Files.readAllBytes(f.toPath());
+            } catch (URISyntaxException e) {
+                // fall through
+            }
+        }
+        try (InputStream in = ClassTransformer.class.getResourceAsStream("ClassTransformer.class")) {
+            byte[] buf = new byte[64*1024];
+            int len = 0, n;
+            while ((n=in.read(buf,len,buf.length-len))>0)
+                len += n;
+            return java.util.Arrays.copyOf(buf,len);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Computes the key of the class file.
+     */
+    String key(byte[] image) {
+        MessageDigest md = newDigest();
+        md.update(salt);
+        md.update(image);
+        StringBuilder buf = new StringBuilder();
+        for (byte b : md.digest())
+            buf.append(Character.forDigit((b>>4)&0xF,16)).append(Character.forDigit(b&0xF,16));
+        return buf.toString();
+    }
+
+    private File file(String key) {
+        return new File(dir, key.substring(0,2)+'/'+key.substring(2));
+    }
+
+    /**
+     * @param hierarchy
+     *      Class hierarchy as seen by the class loader that loads the class.
+     * @return
+     *      null if there's no entry or it's stale, or an empty array if the class is to be left as it is.
+     */
+    byte[] get(String key, TypeHierarchy hierarchy) throws IOException {
+        File f = file(key);
+        if (!f.exists())
+            return null;
+        byte[] data = Files.readAllBytes(f.toPath());
+        if (data.length==0)
+            return data;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        for (int n=in.readInt(); n>0; n--) {
+            String type1 = in.readUTF(), type2 = in.readUTF(), common = in.readUTF();
+            try {
+                if (!hierarchy.getCommonSuperClass(type1, type2).equals(common))
+                    return null;
+            } catch (TypeNotPresentException e) {
+                return null;
+            }
+        }
+        byte[] image = new byte[in.available()];
+        in.readFully(image);
+        return image;
+    }
+
+    /**
+     * @param image
+     *      Transformed class, or null if the class is to be left as it is.
+     * @param superClasses
+     *      Common super classes that the frames of the transformed class were computed from, keyed by the pair
+     *      of the class names separated by a space.
+     */
+    void put(String key, byte[] image, Map<String,String> superClasses) throws IOException {
+        File f = file(key);
+        f.getParentFile().mkdirs();
+        File tmp = File.createTempFile("class", ".tmp", f.getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            if (image!=null) {
+                out.writeInt(superClasses.size());
+                for (Map.Entry<String,String> e : superClasses.entrySet()) {
+                    int idx = e.getKey().indexOf(' ');
+                    out.writeUTF(e.getKey().substring(0,idx));
+                    out.writeUTF(e.getKey().substring(idx+1));
+                    out.writeUTF(e.getValue());
+                }
+                out.write(image);
+            }
+        }
+        // other JVMs sharing the cache may be writing the same entry, with the same contents
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
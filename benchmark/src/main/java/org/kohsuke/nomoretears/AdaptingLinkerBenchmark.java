@@ -0,0 +1,113 @@
+package org.kohsuke.nomoretears;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Compares calls linked by {@link AdaptingLinker} with the equivalent plain bytecode.
+ *
+ * <p>
+ * Each adapted call site is made the way the transformed code would make it had it been compiled against
+ * the older signature noted on the benchmark, and the baseline does the same conversion in Java.
+ * This class itself is left untransformed so that the baseline stays plain bytecode.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@DirectLink
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class AdaptingLinkerBenchmark {
+    public static class Api {
+        public long twice(long x) {
+            return x*2;
+        }
+
+        public String get() {
+            return "x";
+        }
+
+        public static int size() {
+            return 3;
+        }
+    }
+
+    private static final MethodHandle TWICE, GET, SIZE;
+
+    static {
+        Lookup l = MethodHandles.lookup();
+        Linker linker = new AdaptingLinker();
+        try {
+            TWICE = target(linker.invokeVirtual(l, "twice", methodType(long.class, int.class), Api.class));
+            GET = target(linker.invokeVirtual(l, "get", methodType(Object.class), Api.class));
+            SIZE = target(linker.invokeVirtual(l, "size", methodType(int.class), Api.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle target(CallSite site) {
+        if (site==null)     throw new IllegalStateException("Not linked");
+        return site.getTarget();
+    }
+
+    private Api api = new Api();
+    private int x = 42;
+
+    /**
+     * Used to be {@code long twice(int)}.
+     */
+    @Benchmark
+    public long widenedParameter() throws Throwable {
+        return (long)TWICE.invokeExact(api, x);
+    }
+
+    @Benchmark
+    public long widenedParameterBaseline() {
+        return api.twice(x);
+    }
+
+    /**
+     * Used to be {@code Object get()}.
+     */
+    @Benchmark
+    public Object covariantReturn() throws Throwable {
+        return (Object)GET.invokeExact(api);
+    }
+
+    @Benchmark
+    public Object covariantReturnBaseline() {
+        return api.get();
+    }
+
+    /**
+     * Used to be the instance method {@code int size()}.
+     */
+    @Benchmark
+    public int becameStatic() throws Throwable {
+        return (int)SIZE.invokeExact(api);
+    }
+
+    @Benchmark
+    public int becameStaticBaseline() {
+        return Api.size();
+    }
+}
@@ -0,0 +1,155 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Base;
+import org.kohsuke.nomoretears.Subjects.Circle;
+import org.kohsuke.nomoretears.Subjects.Derived;
+import org.kohsuke.nomoretears.Subjects.Hexagon;
+import org.kohsuke.nomoretears.Subjects.Holder;
+import org.kohsuke.nomoretears.Subjects.Shape;
+import org.kohsuke.nomoretears.Subjects.Square;
+import org.kohsuke.nomoretears.Subjects.Triangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state cost of transformed call sites, compared with the same call sites left as plain bytecode.
+ *
+ * <p>
+ * Each fork runs one benchmark with one combination of parameters, so the type profile
+ * of the call sites in {@link Operations} is only shaped by that benchmark.
+ * The extra linkers link nothing and are consulted ahead of {@link DefaultLinker}, so they make linking
+ * slower, which shouldn't make any difference once the call sites are linked.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@DirectLink
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class CallSiteBenchmark {
+    private static final int N = 1024;
+
+    @Param({"false","true"})
+    public boolean transformed;
+
+    /**
+     * Number of linkers, including {@link DefaultLinker}.
+     */
+    @Param({"1","10","50"})
+    public int linkers;
+
+    private Operations ops;
+    private final List<Linker> registered = new ArrayList<>();
+
+    private final Base base = new Derived();
+    private final Holder holder = new Holder();
+    private final Shape[] monomorphic = new Shape[N];
+    private final Shape[] bimorphic = new Shape[N];
+    private final Shape[] megamorphic = new Shape[N];
+    private int x = 42;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i=1; i<linkers; i++) {
+            Linker l = new NoopLinker();
+            LinkerRegistry.global().registerFirst(l);
+            registered.add(l);
+        }
+        ops = transformed ? new LinkedOperations() : new DirectOperations();
+
+        Shape[] all = {new Square(), new Circle(), new Triangle(), new Hexagon()};
+        for (int i=0; i<N; i++) {
+            monomorphic[i] = all[0];
+            bimorphic[i] = all[i%2];
+            megamorphic[i] = all[i%all.length];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Linker l : registered)
+            l.unregister();
+        registered.clear();
+    }
+
+    @Benchmark
+    public int invokeVirtual() {
+        return ops.invokeVirtual(base);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void invokeInterfaceMonomorphic(Blackhole bh) {
+        for (Shape s : monomorphic)
+            bh.consume(ops.invokeInterface(s));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void invokeInterfaceBimorphic(Blackhole bh) {
+        for (Shape s : bimorphic)
+            bh.consume(ops.invokeInterface(s));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void invokeInterfaceMegamorphic(Blackhole bh) {
+        for (Shape s : megamorphic)
+            bh.consume(ops.invokeInterface(s));
+    }
+
+    @Benchmark
+    public int invokeStatic() {
+        return ops.invokeStatic(x);
+    }
+
+    @Benchmark
+    public int invokeSpecial() {
+        return ops.invokeSpecial();
+    }
+
+    @Benchmark
+    public Object invokeConstructor() {
+        return ops.invokeConstructor();
+    }
+
+    @Benchmark
+    public int getField() {
+        return ops.getField(holder);
+    }
+
+    @Benchmark
+    public void putField() {
+        ops.putField(holder, x);
+    }
+
+    @Benchmark
+    public int getStatic() {
+        return ops.getStatic();
+    }
+
+    @Benchmark
+    public void putStatic() {
+        ops.putStatic(x);
+    }
+}
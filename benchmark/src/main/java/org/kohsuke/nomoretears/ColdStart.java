@@ -0,0 +1,323 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.objectweb.asm.ClassWriter.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Measures what it costs to run transformed code for the first time.
+ *
+ * <p>
+ * This generates a corpus of classes with the given number of call sites each, transforms them with
+ * {@link ClassTransformer}, then has the given number of threads load and run all of them at once,
+ * optionally while another thread keeps registering and unregistering a linker.
+ * The result is printed as one line of JSON, so that runs of different versions can be compared.
+ * Run each configuration in its own JVM, as only the first run in a JVM is cold.
+ *
+ * <p>
+ * With <tt>-virtual</tt>, the threads are virtual threads, which takes Java 21 or later. The allocation and
+ * the contention of virtual threads aren't tracked, so those are reported as null.
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.kohsuke.nomoretears.ColdStart [-classes N] [-sites M] [-targets K] [-threads T] [-virtual] [-register]
+ * </pre>
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class ColdStart {
+    /**
+     * Number of classes in the corpus.
+     */
+    private int classes = 1000;
+    /**
+     * Number of call sites in each class.
+     */
+    private int sites = 20;
+    /**
+     * Number of distinct members that the call sites refer to. The fewer, the more links are shared.
+     */
+    private int targets = 1000;
+    private int threads = 1;
+    private boolean virtual;
+    private boolean register;
+
+    private static final String PACKAGE = "corpus/";
+    private static final String TARGET = PACKAGE+"Target";
+
+    public static void main(String[] args) throws Exception {
+        ColdStart cs = new ColdStart();
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+            case "-classes":    cs.classes = Integer.parseInt(args[++i]); break;
+            case "-sites":      cs.sites = Integer.parseInt(args[++i]); break;
+            case "-targets":    cs.targets = Integer.parseInt(args[++i]); break;
+            case "-threads":    cs.threads = Integer.parseInt(args[++i]); break;
+            case "-virtual":    cs.virtual = true; break;
+            case "-register":   cs.register = true; break;
+            default:
+                System.err.println("Unknown option: "+args[i]);
+                System.exit(1);
+            }
+        }
+        try {
+            System.out.println(cs.run());
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private String run() throws Exception {
+        // generate and transform the corpus
+        Map<String,byte[]> corpus = new HashMap<>();
+        corpus.put(TARGET.replace('/','.'), generateTarget());
+        long start = System.nanoTime();
+        for (int i=0; i<classes; i++)
+            corpus.put(className(i).replace('/','.'), transform(generate(i)));
+        long transformNanos = System.nanoTime()-start;
+
+        final CorpusLoader loader = new CorpusLoader(corpus);
+        final AtomicLong links = new AtomicLong(), linkNanos = new AtomicLong();
+        LinkListener listener = new LinkListener() {
+            public void linked(Class<?> caller, Operation op, Class<?> owner, String name, MethodType type, Linker winner, long nanos) {
+                if (caller.getClassLoader()==loader) {
+                    links.incrementAndGet();
+                    linkNanos.addAndGet(nanos);
+                }
+            }
+        };
+        LinkerStats.addListener(listener);
+
+        final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (mx.isThreadContentionMonitoringSupported())
+            mx.setThreadContentionMonitoringEnabled(true);
+
+        final CountDownLatch ready = new CountDownLatch(threads), go = new CountDownLatch(1);
+        final AtomicLong allocated = new AtomicLong(), blockedCount = new AtomicLong(), blockedMillis = new AtomicLong();
+        final long[] firstExecution = new long[threads];
+        final List<Throwable> errors = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t=0; t<threads; t++) {
+            final int id = t;
+            Thread w = newThread("worker "+t, new Runnable() {
+                public void run() {
+                    long tid = Thread.currentThread().getId();
+                    // -1 and null for a virtual thread
+                    long bytes = mx.getThreadAllocatedBytes(tid);
+                    ThreadInfo before = mx.getThreadInfo(tid);
+                    ready.countDown();
+                    try {
+                        go.await();
+                        long start = System.nanoTime();
+                        // each thread starts at a different class, so that they collide on some but not all
+                        for (int i=0; i<classes; i++) {
+                            Class<?> c = Class.forName(className((i+id*classes/threads)%classes).replace('/','.'), true, loader);
+                            ((Runnable)c.newInstance()).run();
+                        }
+                        firstExecution[id] = System.nanoTime()-start;
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                    if (bytes>=0)
+                        allocated.addAndGet(mx.getThreadAllocatedBytes(tid)-bytes);
+                    if (before!=null) {
+                        ThreadInfo after = mx.getThreadInfo(tid);
+                        blockedCount.addAndGet(after.getBlockedCount()-before.getBlockedCount());
+                        blockedMillis.addAndGet(after.getBlockedTime()-before.getBlockedTime());
+                    }
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong registrations = new AtomicLong();
+        Thread registrar = new Thread("registrar") {
+            @Override
+            public void run() {
+                Linker l = new NoopLinker();
+                while (!done.get()) {
+                    l.register();
+                    l.unregister();
+                    registrations.incrementAndGet();
+                }
+            }
+        };
+
+        ready.await();
+        start = System.nanoTime();
+        if (register)
+            registrar.start();
+        go.countDown();
+        for (Thread w : workers)
+            w.join();
+        long wallNanos = System.nanoTime()-start;
+        done.set(true);
+        if (register)
+            registrar.join();
+        LinkerStats.removeListener(listener);
+
+        if (!errors.isEmpty()) {
+            Exception e = new Exception(errors.size()+" threads failed");
+            e.initCause(errors.get(0));
+            throw e;
+        }
+
+        long max = 0, sum = 0;
+        for (long n : firstExecution) {
+            max = Math.max(max,n);
+            sum += n;
+        }
+
+        StringBuilder json = new StringBuilder("{");
+        field(json, "classes", classes);
+        field(json, "sites", sites);
+        field(json, "targets", targets);
+        field(json, "threads", threads);
+        field(json, "threadKind", virtual ? "\"virtual\"" : "\"platform\"");
+        field(json, "register", register);
+        field(json, "transformMillis", transformNanos/1000000.0);
+        field(json, "wallMillis", wallNanos/1000000.0);
+        field(json, "firstExecutionMaxMillis", max/1000000.0);
+        field(json, "firstExecutionMeanMillis", sum/threads/1000000.0);
+        field(json, "links", links.get());
+        field(json, "linkerMillis", linkNanos.get()/1000000.0);
+        field(json, "allocatedBytes", virtual ? null : allocated.get());
+        field(json, "blockedCount", virtual ? null : blockedCount.get());
+        field(json, "blockedMillis", virtual ? null : blockedMillis.get());
+        field(json, "registrations", registrations.get());
+        json.setLength(json.length()-1);
+        return json.append('}').toString();
+    }
+
+    /**
+     * Creates a worker thread of the kind asked for. Virtual threads are created reflectively,
+     * as this compiles for Java 7.
+     */
+    private Thread newThread(String name, Runnable r) throws Exception {
+        if (!virtual)
+            return new Thread(r, name);
+        Object builder;
+        try {
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        } catch (NoSuchMethodException | InvocationTargetException e) {
+            // missing, or a preview feature that isn't enabled
+            throw new UnsupportedOperationException("-virtual takes Java 21 or later");
+        }
+        Class<?> b = Class.forName("java.lang.Thread$Builder");
+        builder = b.getMethod("name", String.class).invoke(builder, name);
+        return (Thread)b.getMethod("unstarted", Runnable.class).invoke(builder, r);
+    }
+
+    private static void field(StringBuilder json, String name, Object value) {
+        json.append('"').append(name).append("\":").append(value).append(',');
+    }
+
+    private static String className(int i) {
+        return PACKAGE+"C"+i;
+    }
+
+    /**
+     * Generates the class that has all the members the call sites refer to.
+     */
+    private byte[] generateTarget() {
+        ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+        cw.visit(V1_7, ACC_PUBLIC, TARGET, null, "java/lang/Object", null);
+        cw.visitField(ACC_PUBLIC|ACC_STATIC, "sink", "I", null, null).visitEnd();
+        for (int k=0; k<targets; k++) {
+            cw.visitField(ACC_PUBLIC|ACC_STATIC, "f"+k, "I", null, null).visitEnd();
+
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC|ACC_STATIC, "m"+k, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ILOAD,0);
+            mv.visitLdcInsn(k);
+            mv.visitInsn(IADD);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0,0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates a {@link Runnable} whose call sites alternate between calling a static method and reading a static field.
+     */
+    private byte[] generate(int i) {
+        ClassWriter cw = new ClassWriter(COMPUTE_MAXS);
+        cw.visit(V1_7, ACC_PUBLIC, className(i), null, "java/lang/Object", new String[]{"java/lang/Runnable"});
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD,0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "run", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(ICONST_0);
+        for (int j=0; j<sites; j++) {
+            int k = (i*sites+j)%targets;
+            if (j%2==0) {
+                mv.visitMethodInsn(INVOKESTATIC, TARGET, "m"+k, "(I)I", false);
+            } else {
+                mv.visitFieldInsn(GETSTATIC, TARGET, "f"+k, "I");
+                mv.visitInsn(IADD);
+            }
+        }
+        mv.visitFieldInsn(PUTSTATIC, TARGET, "sink", "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] transform(byte[] image) {
+        ClassReader cr = new ClassReader(image);
+        ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
+        new ClassTransformer(cw).transform(cr);
+        return cw.toByteArray();
+    }
+
+    private static final class CorpusLoader extends ClassLoader {
+        private final Map<String,byte[]> corpus;
+
+        CorpusLoader(Map<String,byte[]> corpus) {
+            super(ColdStart.class.getClassLoader());
+            this.corpus = corpus;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] image = corpus.get(name);
+            if (image==null)    throw new ClassNotFoundException(name);
+            return defineClass(name, image, 0, image.length);
+        }
+
+        static {
+            registerAsParallelCapable();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Color;
+
+/**
+ * Loops that read static finals.
+ *
+ * <p>
+ * {@link DirectHotLoops} and {@link LinkedHotLoops} have the same code, but only the latter gets transformed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public abstract class HotLoops {
+    /**
+     * Switches over enum constants, which reads the switch map that the compiler generates.
+     */
+    public abstract int switchOverEnum(Color[] colors);
+
+    /**
+     * Compares with an enum constant.
+     */
+    public abstract int countRed(Color[] colors);
+
+    /**
+     * Reads the settings in {@link Subjects.Config}.
+     */
+    public abstract int readConfig(int n);
+}
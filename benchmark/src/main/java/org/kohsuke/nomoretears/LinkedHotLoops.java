@@ -0,0 +1,51 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Color;
+import org.kohsuke.nomoretears.Subjects.Config;
+
+/**
+ * {@link HotLoops} whose static final reads get transformed into invokedynamic.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class LinkedHotLoops extends HotLoops {
+    @Override
+    public int switchOverEnum(Color[] colors) {
+        int sum = 0;
+        for (Color c : colors) {
+            switch (c) {
+            case RED:
+                sum += 1;
+                break;
+            case GREEN:
+                sum += 2;
+                break;
+            case BLUE:
+                sum += 3;
+                break;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public int countRed(Color[] colors) {
+        int n = 0;
+        for (Color c : colors) {
+            if (c==Color.RED)
+                n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int readConfig(int n) {
+        int sum = 0;
+        for (int i=0; i<n; i++) {
+            if (Config.TRACE)
+                sum--;
+            sum += i*Config.SCALE;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,58 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Base;
+import org.kohsuke.nomoretears.Subjects.Holder;
+import org.kohsuke.nomoretears.Subjects.Shape;
+import org.kohsuke.nomoretears.Subjects.Square;
+
+/**
+ * {@link Operations} whose call sites get transformed into invokedynamic.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class LinkedOperations extends Operations {
+    @Override
+    public int invokeVirtual(Base b) {
+        return b.value();
+    }
+
+    @Override
+    public int invokeInterface(Shape s) {
+        return s.area();
+    }
+
+    @Override
+    public int invokeStatic(int x) {
+        return Subjects.twice(x);
+    }
+
+    @Override
+    public int invokeSpecial() {
+        return super.value();
+    }
+
+    @Override
+    public Object invokeConstructor() {
+        return new Square();
+    }
+
+    @Override
+    public int getField(Holder h) {
+        return h.field;
+    }
+
+    @Override
+    public void putField(Holder h, int v) {
+        h.field = v;
+    }
+
+    @Override
+    public int getStatic() {
+        return Holder.counter;
+    }
+
+    @Override
+    public void putStatic(int v) {
+        Holder.counter = v;
+    }
+}
@@ -0,0 +1,22 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+
+/**
+ * Linker that links nothing, to make the chain of linkers longer.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+class NoopLinker extends Linker {
+    public CallSite invokeVirtual(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+    public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+    public CallSite invokeInterface(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+    public CallSite invokeSpecial(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+    public CallSite invokeConstructor(Lookup caller, MethodType signature, Class<?> owner) { return null; }
+    public CallSite getField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+    public CallSite putField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+    public CallSite getStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+    public CallSite putStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+}
@@ -0,0 +1,33 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Base;
+import org.kohsuke.nomoretears.Subjects.Holder;
+import org.kohsuke.nomoretears.Subjects.Shape;
+
+/**
+ * One call site for each operation that the transformer rewrites.
+ *
+ * <p>
+ * {@link DirectOperations} and {@link LinkedOperations} have the same code, but only the latter gets transformed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public abstract class Operations extends Base {
+    public abstract int invokeVirtual(Base b);
+
+    public abstract int invokeInterface(Shape s);
+
+    public abstract int invokeStatic(int x);
+
+    public abstract int invokeSpecial();
+
+    public abstract Object invokeConstructor();
+
+    public abstract int getField(Holder h);
+
+    public abstract void putField(Holder h, int v);
+
+    public abstract int getStatic();
+
+    public abstract void putStatic(int v);
+}
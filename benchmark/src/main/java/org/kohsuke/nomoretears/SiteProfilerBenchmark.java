@@ -0,0 +1,95 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Base;
+import org.kohsuke.nomoretears.Subjects.Circle;
+import org.kohsuke.nomoretears.Subjects.Derived;
+import org.kohsuke.nomoretears.Subjects.Hexagon;
+import org.kohsuke.nomoretears.Subjects.Holder;
+import org.kohsuke.nomoretears.Subjects.Shape;
+import org.kohsuke.nomoretears.Subjects.Square;
+import org.kohsuke.nomoretears.Subjects.Triangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link SiteProfiler} on transformed call sites.
+ *
+ * <p>
+ * "off" never enables the profiler, "on" links and runs the call sites with it enabled,
+ * and "paused" links them with it enabled, then disables it, which should cost as little as "off".
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@DirectLink
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class SiteProfilerBenchmark {
+    private static final int N = 1024;
+
+    @Param({"off","on","paused"})
+    public String profiler;
+
+    private final Operations ops = new LinkedOperations();
+
+    private final Base base = new Derived();
+    private final Holder holder = new Holder();
+    private final Shape[] megamorphic = new Shape[N];
+    private int x = 42;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Shape[] all = {new Square(), new Circle(), new Triangle(), new Hexagon()};
+        for (int i=0; i<N; i++)
+            megamorphic[i] = all[i%all.length];
+
+        if (!profiler.equals("off"))
+            SiteProfiler.get().setEnabled(true);
+        // link the call sites while the profiler is enabled
+        ops.invokeVirtual(base);
+        ops.invokeStatic(x);
+        ops.getField(holder);
+        ops.invokeInterface(megamorphic[0]);
+        if (profiler.equals("paused"))
+            SiteProfiler.get().setEnabled(false);
+    }
+
+    @Benchmark
+    public int invokeVirtual() {
+        return ops.invokeVirtual(base);
+    }
+
+    @Benchmark
+    public int invokeStatic() {
+        return ops.invokeStatic(x);
+    }
+
+    @Benchmark
+    public int getField() {
+        return ops.getField(holder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void invokeInterfaceMegamorphic(Blackhole bh) {
+        for (Shape s : megamorphic)
+            bh.consume(ops.invokeInterface(s));
+    }
+}
@@ -0,0 +1,82 @@
+package org.kohsuke.nomoretears;
+
+import org.kohsuke.nomoretears.Subjects.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot loops that read static finals, whose transformed call sites should be linked to the values,
+ * and run as fast as the plain bytecode.
+ *
+ * <p>
+ * Not every class that declares the static finals is initialized before their call sites are linked,
+ * such as the switch map of {@link LinkedHotLoops#switchOverEnum}, whose call site initializes it.
+ * Those call sites switch to the values on the first read that finds the class initialized, which the check
+ * in {@link #setUp()} makes, so the loops are measured with all of them linked to the values.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@DirectLink
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class StaticFinalBenchmark {
+    private static final int N = 1024;
+
+    @Param({"false","true"})
+    public boolean transformed;
+
+    private HotLoops loops;
+    private final Color[] colors = new Color[N];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random r = new Random(0);
+        for (int i=0; i<N; i++)
+            colors[i] = Color.values()[r.nextInt(3)];
+        int scale = Subjects.Config.SCALE;
+
+        loops = transformed ? new LinkedHotLoops() : new DirectHotLoops();
+
+        HotLoops direct = new DirectHotLoops();
+        if (loops.switchOverEnum(colors)!=direct.switchOverEnum(colors)
+         || loops.countRed(colors)!=direct.countRed(colors)
+         || loops.readConfig(N)!=direct.readConfig(N))
+            throw new IllegalStateException("Transformed loops compute different results, with scale="+scale);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int switchOverEnum() {
+        return loops.switchOverEnum(colors);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int countRed() {
+        return loops.countRed(colors);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int readConfig() {
+        return loops.readConfig(N);
+    }
+}
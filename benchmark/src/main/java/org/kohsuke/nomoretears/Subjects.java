@@ -0,0 +1,74 @@
+package org.kohsuke.nomoretears;
+
+/**
+ * Members that the benchmarked call sites refer to.
+ *
+ * <p>
+ * Their bodies don't refer to other members, so they run the same whether they are transformed or not.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Subjects {
+    public interface Shape {
+        int area();
+    }
+
+    public static class Square implements Shape {
+        public int area() {
+            return 4;
+        }
+    }
+
+    public static class Circle implements Shape {
+        public int area() {
+            return 3;
+        }
+    }
+
+    public static class Triangle implements Shape {
+        public int area() {
+            return 2;
+        }
+    }
+
+    public static class Hexagon implements Shape {
+        public int area() {
+            return 6;
+        }
+    }
+
+    public static class Base {
+        public int value() {
+            return 1;
+        }
+    }
+
+    public static class Derived extends Base {
+        @Override
+        public int value() {
+            return 2;
+        }
+    }
+
+    public static class Holder {
+        public int field;
+        public static int counter;
+    }
+
+    public enum Color {
+        RED, GREEN, BLUE
+    }
+
+    /**
+     * Settings that are read once, like many applications do with system properties.
+     * They aren't compile-time constants, so the compiler doesn't inline them.
+     */
+    public static class Config {
+        public static final int SCALE = Integer.getInteger("scale", 3);
+        public static final boolean TRACE = Boolean.getBoolean("trace");
+    }
+
+    public static int twice(int x) {
+        return x*2;
+    }
+}
@@ -0,0 +1,282 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.objectweb.asm.ClassWriter.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Throughput of {@link ClassTransformer}, which decides how long builds and load-time transformation take.
+ *
+ * <p>
+ * Each operation transforms the next class of a corpus of real classes, so the throughput is in classes per second.
+ * The "bytes" counter gives the throughput in bytes of the original class files, and <tt>-prof gc</tt> gives
+ * the allocation per class as <tt>gc.alloc.rate.norm</tt>. The corpus is either "asm" or "jmh", the classes of
+ * the library on the classpath, or the path of any other jar, such as <tt>-p corpus=guava-19.0.jar</tt>.
+ * Classes that can't be transformed, such as those whose super classes aren't around, are left out of it.
+ *
+ * <p>
+ * {@link #transform} is the whole transformation, as the build does it. The others break it down by phase:
+ * {@link #read} parses the class file, {@link #analyze} runs the dataflow analysis on the methods that
+ * the transformation analyzes, {@link #rewrite} transforms the class without writing it, which includes
+ * reading and the analysis, and {@link #write} writes the transformed class, computing its frames.
+ * References between the classes of the corpus are linked, as if they were in another artifact.
+ * The transformation takes more than ten seconds to warm up, hence the long warmup.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@DirectLink
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=10, time=2)
+@Measurement(iterations=5)
+@Fork(1)
+public class TransformerBenchmark {
+    @Param({"asm","jmh"})
+    public String corpus;
+
+    private final LinkPolicy policy = new LinkPolicy();
+    private TypeHierarchy hierarchy;
+
+    /**
+     * Class files of the corpus.
+     */
+    private byte[][] images;
+    /**
+     * Readers of {@link #images}, which {@link #write} hands to the writer like the build does,
+     * for it to copy the constant pool from.
+     */
+    private ClassReader[] readers;
+    /**
+     * Methods of each class that the transformation analyzes.
+     */
+    private MethodNode[][] analyzed;
+    /**
+     * Each class as transformed.
+     */
+    private ClassNode[] transformed;
+
+    private int next;
+
+    /**
+     * Counts the bytes of the class files transformed.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File jar;
+        String prefix;
+        switch (corpus) {
+        case "asm":
+            jar = jarOf(ClassReader.class);
+            prefix = "org/objectweb/asm/";
+            break;
+        case "jmh":
+            jar = jarOf(Benchmark.class);
+            prefix = "org/openjdk/jmh/";
+            break;
+        default:
+            jar = new File(corpus);
+            prefix = "";
+        }
+        hierarchy = new TypeHierarchy(Collections.singletonList(jar));
+
+        List<byte[]> images = new ArrayList<>();
+        List<MethodNode[]> analyzed = new ArrayList<>();
+        List<ClassNode> transformed = new ArrayList<>();
+        int skipped = 0;
+        try (ZipFile z = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> e = z.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry ze = e.nextElement();
+                String name = ze.getName();
+                if (!name.startsWith(prefix) || !name.endsWith(".class") || name.endsWith("module-info.class"))
+                    continue;
+                byte[] image;
+                try (InputStream in = z.getInputStream(ze)) {
+                    image = readAll(in);
+                }
+
+                ClassTransformer ct = new ClassTransformer(SINK, policy);
+                ClassNode out = new ClassNode();
+                try {
+                    ct.transform(new ClassReader(image));
+                    new ClassReader(transform(image)).accept(out, 0);
+                } catch (RuntimeException x) {
+                    // already transformed, refers to classes that aren't around, or can't be transformed
+                    skipped++;
+                    continue;
+                }
+
+                ClassNode original = new ClassNode();
+                new ClassReader(image).accept(original, 0);
+                List<MethodNode> methods = new ArrayList<>();
+                for (MethodNode m : original.methods) {
+                    if (ct.isAnalyzed(m.name, m.desc))
+                        methods.add(m);
+                }
+
+                images.add(image);
+                analyzed.add(methods.toArray(new MethodNode[methods.size()]));
+                transformed.add(out);
+            }
+        }
+        if (images.isEmpty())
+            throw new IllegalStateException("No classes to transform in "+jar);
+        this.images = images.toArray(new byte[images.size()][]);
+        this.readers = new ClassReader[images.size()];
+        for (int i=0; i<readers.length; i++)
+            readers[i] = new ClassReader(this.images[i]);
+        this.analyzed = analyzed.toArray(new MethodNode[analyzed.size()][]);
+        this.transformed = transformed.toArray(new ClassNode[transformed.size()]);
+
+        long bytes = 0;
+        for (byte[] image : images)
+            bytes += image.length;
+        System.out.printf("%nCorpus: %d classes, %d bytes from %s, %d classes left out%n", images.size(), bytes, jar, skipped);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        hierarchy.close();
+    }
+
+    private static File jarOf(Class<?> c) throws Exception {
+        return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len=in.read(buf))>=0)
+            baos.write(buf, 0, len);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Picks the class that the next operation works on.
+     */
+    private int next(Bytes counter) {
+        int i = next;
+        next = (i+1)%images.length;
+        counter.bytes += images[i].length;
+        return i;
+    }
+
+    /**
+     * Transforms the class as the build does.
+     */
+    private byte[] transform(byte[] image) {
+        ClassReader cr = new ClassReader(image);
+        ClassWriter cw = hierarchy.createClassWriter(cr, COMPUTE_FRAMES);
+        new ClassTransformer(cw, policy).transform(cr);
+        return cw.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] transform(Bytes counter) {
+        return transform(images[next(counter)]);
+    }
+
+    @Benchmark
+    public void read(Bytes counter) {
+        new ClassReader(images[next(counter)]).accept(SINK, 0);
+    }
+
+    @Benchmark
+    public void analyze(Bytes counter, Blackhole bh) throws Exception {
+        for (MethodNode m : analyzed[next(counter)])
+            bh.consume(new InitializationAnalyzer(m, m.name.equals("<init>")));
+    }
+
+    @Benchmark
+    public void rewrite(Bytes counter) {
+        new ClassTransformer(SINK, policy).transform(new ClassReader(images[next(counter)]));
+    }
+
+    @Benchmark
+    public byte[] write(Bytes counter) {
+        int i = next(counter);
+        ClassWriter cw = hierarchy.createClassWriter(readers[i], COMPUTE_FRAMES);
+        transformed[i].accept(cw);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Visits every part of a class and discards it.
+     */
+    private static final ClassVisitor SINK = new ClassVisitor(ASM9) {
+        private final AnnotationVisitor annotation = new AnnotationVisitor(ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String desc) {
+                return this;
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                return this;
+            }
+        };
+        private final MethodVisitor method = new MethodVisitor(ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                return annotation;
+            }
+        };
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return annotation;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return method;
+        }
+    };
+}
@@ -0,0 +1,78 @@
+package org.kohsuke.nomoretears;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.lang.invoke.MethodType;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records a {@link LinkEvent} in JDK Flight Recorder for each reference that the linkers link.
+ *
+ * <p>
+ * {@link LinkerStats} installs this when it's on the classpath and the JVM has JFR. It only listens to
+ * the links while a recording is running, so the bootstraps pay nothing for it otherwise.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class FlightRecorderBridge implements LinkListener {
+    private static final FlightRecorderBridge INSTANCE = new FlightRecorderBridge();
+
+    /**
+     * Recordings that are running. Guarded by the class, which is never held while calling into JFR,
+     * as JFR calls back while holding its own locks.
+     */
+    private static final Set<Recording> RUNNING = new HashSet<>();
+
+    private FlightRecorderBridge() {}
+
+    /**
+     * Starts following the recordings. Called reflectively by {@link LinkerStats}.
+     */
+    public static void install() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                // those started before this was installed
+                for (Recording r : recorder.getRecordings())
+                    recordingStateChanged(r);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update(recording, recording.getState()==RecordingState.RUNNING);
+            }
+        });
+    }
+
+    private static synchronized void update(Recording r, boolean running) {
+        boolean listening = !RUNNING.isEmpty();
+        if (running)
+            RUNNING.add(r);
+        else
+            RUNNING.remove(r);
+        if (listening==RUNNING.isEmpty()) {
+            if (listening)
+                LinkerStats.removeListener(INSTANCE);
+            else
+                LinkerStats.addListener(INSTANCE);
+        }
+    }
+
+    @Override
+    public void linked(Class<?> caller, Operation op, Class<?> owner, String name, MethodType type, Linker winner, long nanos) {
+        LinkEvent e = new LinkEvent();
+        if (!e.shouldCommit())
+            return;     // the running recordings don't have it enabled
+        e.caller = caller;
+        e.operation = op.toString();
+        e.owner = owner;
+        e.member = op.describe(owner.getName(), name, type);
+        e.winner = winner!=null ? winner.getClass().getName() : null;
+        e.linkTime = nanos;
+        e.commit();
+    }
+}
@@ -0,0 +1,43 @@
+package org.kohsuke.nomoretears;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a reference that the linkers linked, at the first call site of the reference that got executed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@Name(LinkEvent.NAME)
+@Label("Link")
+@Category("No More Tears")
+@Description("Linkers ran for a reference")
+@StackTrace(false)
+final class LinkEvent extends Event {
+    static final String NAME = "org.kohsuke.nomoretears.Link";
+
+    @Label("Caller")
+    Class<?> caller;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Owner")
+    Class<?> owner;
+
+    @Label("Member")
+    String member;
+
+    @Label("Winner")
+    @Description("Class name of the linker that linked the reference, null if none did")
+    String winner;
+
+    @Label("Link Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long linkTime;
+}
@@ -0,0 +1,60 @@
+package org.kohsuke.nomoretears;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Kohsuke Kawaguchi
+ */
+public class FlightRecorderBridgeTest {
+    static int target() {
+        return 1;
+    }
+
+    @Test
+    public void recordsLinksWhileRecording() throws Exception {
+        // installs the bridge
+        LinkerStats.get();
+        assertFalse("nothing to pay for without a recording", LinkerStats.isActive());
+
+        Path file = Files.createTempFile("links", ".jfr");
+        try {
+            try (Recording r = new Recording()) {
+                r.enable(LinkEvent.NAME);
+                r.start();
+                assertTrue(LinkerStats.isActive());
+                LinkerBootstrap.linkNow(Operation.INVOKE_STATIC, MethodHandles.lookup(), "target",
+                        MethodType.methodType(int.class), FlightRecorderBridgeTest.class);
+                r.stop();
+                r.dump(file);
+            }
+            assertFalse(LinkerStats.isActive());
+
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+                if (e.getEventType().getName().equals(LinkEvent.NAME) && e.getString("member").endsWith(".target()int"))
+                    events.add(e);
+            }
+            assertEquals(1, events.size());
+            RecordedEvent e = events.get(0);
+            assertEquals(FlightRecorderBridgeTest.class.getName(), e.getClass("caller").getName());
+            assertEquals(FlightRecorderBridgeTest.class.getName(), e.getClass("owner").getName());
+            assertEquals("invokeStatic", e.getString("operation"));
+            assertEquals(DefaultLinker.class.getName(), e.getString("winner"));
+            assertTrue(e.getDuration("linkTime").toNanos()>0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.kohsuke.nomoretears;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * What {@link ProcessMojo} did in the previous run, so that the next run can skip the class files
+ * it has already transformed without even opening them.
+ *
+ * <p>
+ * For each class file written, this records its size, its last modified time, and the hash of its contents,
+ * along with the fingerprint of the transformer settings that were in effect.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class BuildState {
+    /**
+     * Bumped whenever the transformation changes in a way that requires the classes to be transformed again.
+     */
+    private static final String VERSION = "3";
+
+    /**
+     * {@link LinkPolicy#getFingerprint()} and {@link #VERSION} of the run that wrote this state.
+     */
+    final String fingerprint;
+
+    /**
+     * Keyed by the internal names of the classes. Classes are recorded concurrently as they are transformed.
+     */
+    private final Map<String,Record> records = new ConcurrentSkipListMap<>();
+
+    BuildState(LinkPolicy policy) {
+        this(VERSION+":"+policy.getFingerprint());
+    }
+
+    private BuildState(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * What the class file looked like when it was last written or checked.
+     */
+    static final class Record {
+        final long size;
+        final long lastModified;
+        final long hash;
+
+        Record(long size, long lastModified, long hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        Record(File f, long hash) {
+            this(f.length(), f.lastModified(), hash);
+        }
+
+        /**
+         * Does the file look like it hasn't been touched since?
+         */
+        boolean matches(File f) {
+            return f.length()==size && f.lastModified()==lastModified;
+        }
+    }
+
+    Record get(String name) {
+        return records.get(name);
+    }
+
+    void put(String name, Record r) {
+        records.put(name, r);
+    }
+
+    static long hash(byte[] image, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(image, off, len);
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the state written by the previous run.
+     *
+     * @return
+     *      empty state with an unknown fingerprint if there's no such file or it can't be read.
+     */
+    static BuildState load(File file) {
+        if (file.exists()) {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String fingerprint = r.readLine();
+                if (fingerprint==null)
+                    return new BuildState("");
+                BuildState state = new BuildState(fingerprint);
+                String line;
+                while ((line=r.readLine())!=null) {
+                    String[] tokens = line.split("\t");
+                    state.put(tokens[0], new Record(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Long.parseLong(tokens[3],16)));
+                }
+                return state;
+            } catch (IOException | RuntimeException e) {
+                // start over
+            }
+        }
+        return new BuildState("");
+    }
+
+    void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath()+".tmp");
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            w.println(fingerprint);
+            for (Entry<String,Record> e : records.entrySet()) {
+                Record r = e.getValue();
+                w.println(e.getKey()+'\t'+r.size+'\t'+r.lastModified+'\t'+Long.toHexString(r.hash));
+            }
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to write "+file);
+    }
+}
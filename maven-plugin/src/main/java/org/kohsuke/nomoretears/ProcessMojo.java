@@ -12,8 +12,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
-import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -30,45 +46,332 @@ public class ProcessMojo extends AbstractMojo {
      */
     private File classesDirectory;
 
+    /**
+     * Whether to write {@link CallSiteManifest} of the transformed classes, which {@link Warmup} uses.
+     *
+     * @parameter default-value="true"
+     */
+    private boolean writeManifest;
+
+    /**
+     * Whether to lazily link references to the platform classes in <tt>java.*</tt>.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean linkPlatformReferences;
+
+    /**
+     * Whether to lazily link references between the classes in {@link #classesDirectory},
+     * which are compiled together and therefore can't go out of sync.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean linkLocalReferences;
+
+    /**
+     * Whether to list the references that the call sites of each class make in {@link CallSiteTable},
+     * so that they can be linked all at once when {@link LinkerBootstrap#BATCH} is set.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean writeCallSiteTable;
+
+    /**
+     * If specified, only the references to the owners that match one of these rules are lazily linked.
+     * See {@link LinkPolicy#include(String)} for the syntax, for example "invokeVirtual,invokeInterface:org.acme.api.**".
+     *
+     * @parameter
+     */
+    private String[] includes;
+
+    /**
+     * References to the owners that match one of these rules are never lazily linked.
+     *
+     * @parameter
+     */
+    private String[] excludes;
+
+    /**
+     * Number of threads to transform classes with. 0 to use as many as there are processors.
+     *
+     * @parameter expression="${nomoretears.threads}" default-value="0"
+     */
+    private int threads;
+
+    /**
+     * Where to keep {@link BuildState} and the class files as they were before the transformation,
+     * so that the next build can skip the classes that haven't changed, and transform them again
+     * from the originals when the settings have changed.
+     *
+     * @parameter expression="${project.build.directory}/no-more-tears"
+     * @required
+     */
+    private File stateDirectory;
+
+    /**
+     * Where the super classes of the classes being transformed are found, for computing frames.
+     *
+     * @parameter expression="${project.compileClasspathElements}"
+     * @required
+     * @readonly
+     */
+    private List<String> classpathElements;
+
+    private LinkPolicy policy;
+
+    private TypeHierarchy hierarchy;
+
+    /**
+     * State of the previous run, and that of this run.
+     */
+    private BuildState previous, current;
+
+    /**
+     * True if the previous run transformed the classes the same way as this run will.
+     */
+    private boolean upToDate;
+
+    /**
+     * Call sites of the classes transformed in this run, keyed by the class name.
+     */
+    private final Map<String,List<CallSiteManifest.Entry>> sites = new TreeMap<>();
+
     public void execute() throws MojoExecutionException, MojoFailureException {
         try {
-            process(classesDirectory);
+            Map<String,File> classes = new TreeMap<>();
+            listClasses(classesDirectory, "", classes);
+            policy = new LinkPolicy()
+                    .setLinkPlatform(linkPlatformReferences)
+                    .setLinkLocal(linkLocalReferences)
+                    .setCallSiteTable(writeCallSiteTable)
+                    .addLocalClasses(classes.keySet());
+            if (includes!=null)
+                for (String rule : includes)
+                    policy.include(rule);
+            if (excludes!=null)
+                for (String rule : excludes)
+                    policy.exclude(rule);
+
+            File stateFile = new File(stateDirectory, "state");
+            previous = BuildState.load(stateFile);
+            current = new BuildState(policy);
+            // the manifest is incomplete if it's gone, so redo everything in that case, too
+            upToDate = previous.fingerprint.equals(current.fingerprint)
+                    && (!writeManifest || new File(classesDirectory, CallSiteManifest.RESOURCE).exists());
+            if (!upToDate && !previous.fingerprint.isEmpty())
+                getLog().info("Transformer settings have changed. Transforming all the classes again");
+
+            List<File> classpath = new ArrayList<>();
+            classpath.add(classesDirectory);
+            if (classpathElements!=null)
+                for (String e : classpathElements)
+                    classpath.add(new File(e));
+            File hierarchyFile = new File(stateDirectory, "hierarchy");
+            hierarchy = new TypeHierarchy(classpath);
+            hierarchy.load(hierarchyFile);
+            try {
+                process(classes);
+                hierarchy.save(hierarchyFile);
+            } finally {
+                hierarchy.close();
+            }
+            if (writeManifest)
+                updateManifest();
+            deleteStaleOriginals(new File(stateDirectory, "originals"), "", classes);
+            current.save(stateFile);
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to process @WithBridgeMethods",e);
         }
     }
 
-    private void process(File dir) throws IOException {
+    /**
+     * Lists the classes in the given directory, keyed by their internal names.
+     */
+    private void listClasses(File dir, String prefix, Map<String,File> classes) {
         for (File f : dir.listFiles()) {
+            String n = f.getName();
             if (f.isDirectory())
-                process(f);
+                listClasses(f, prefix+n+'/', classes);
             else
-            if (f.getName().endsWith(".class"))
+            if (n.endsWith(".class"))
+                classes.put(prefix+n.substring(0,n.length()-6), f);
+        }
+    }
+
+    /**
+     * Transforms the classes in parallel. Each class is transformed on its own, so the outcome doesn't depend
+     * on the parallelism. Failures are reported for all the classes, in the order of their names.
+     */
+    private void process(Map<String,File> classes) throws MojoExecutionException {
+        ForkJoinPool pool = new ForkJoinPool(threads>0 ? threads : Runtime.getRuntime().availableProcessors());
+        try {
+            Map<String,Future<List<CallSiteManifest.Entry>>> results = new LinkedHashMap<>();
+            for (final Entry<String,File> e : classes.entrySet()) {
+                results.put(e.getKey(), pool.submit(new Callable<List<CallSiteManifest.Entry>>() {
+                    public List<CallSiteManifest.Entry> call() throws IOException {
+                        return transform(e.getKey(), e.getValue());
+                    }
+                }));
+            }
+
+            Map<String,Throwable> failures = new LinkedHashMap<>();
+            for (Entry<String,Future<List<CallSiteManifest.Entry>>> e : results.entrySet()) {
                 try {
-                    transform(f);
-                } catch (IOException e) {
-                    throw new IOException("Failed to process "+f,e);
+                    List<CallSiteManifest.Entry> s = e.getValue().get();
+                    if (s!=null)
+                        sites.put(e.getKey().replace('/','.'), s);
+                } catch (ExecutionException x) {
+                    failures.put(e.getKey(), x.getCause());
                 }
+            }
+
+            if (!failures.isEmpty()) {
+                StringBuilder msg = new StringBuilder("Failed to process "+failures.size()+" classes");
+                for (Entry<String,Throwable> e : failures.entrySet()) {
+                    getLog().error("Failed to process "+classes.get(e.getKey()), e.getValue());
+                    msg.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+                }
+                throw new MojoExecutionException(msg.toString(), failures.values().iterator().next());
+            }
+        } catch (InterruptedException e) {
+            throw new MojoExecutionException("Interrupted",e);
+        } finally {
+            pool.shutdown();
         }
     }
 
-    private void transform(File f) throws IOException {
-        byte[] image;
+    /**
+     * Buffer to read class files into, reused by each thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64*1024];
+        }
+    };
 
-        try (InputStream in = new FileInputStream(f)) {
-            ClassReader cr = new ClassReader(in);
-            ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
-            cr.accept(new ClassTransformer(cw),0);
+    /**
+     * Transforms a class file in place.
+     *
+     * <p>
+     * A class file that hasn't been touched since the previous run is skipped without being read.
+     * One that has already been transformed is only transformed again, from the original kept in
+     * {@link #stateDirectory}, if the settings have changed.
+     *
+     * @return
+     *      the call sites in the transformed class, or null if it's left as it is.
+     */
+    private List<CallSiteManifest.Entry> transform(String name, File f) throws IOException {
+        BuildState.Record r = previous.get(name);
+        if (upToDate && r!=null && r.matches(f)) {
+            current.put(name, r);
+            return null;
+        }
+
+        File original = new File(stateDirectory, "originals/"+name+".class");
+        int len = read(f);
+        byte[] buf = BUFFER.get();
+        if (ClassTransformer.isTransformed(buf,0,len)) {
+            long hash = BuildState.hash(buf,0,len);
+            if (upToDate || r==null || r.hash!=hash || !original.exists()) {
+                // transformed by the previous run with the same settings, or by someone else that we can't redo
+                current.put(name, new BuildState.Record(f,hash));
+                return null;
+            }
+            len = read(original);
+            buf = BUFFER.get();
+        } else {
+            // fresh from the compiler
+            original.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(original)) {
+                out.write(buf,0,len);
+            }
+        }
+
+        byte[] image;
+        List<CallSiteManifest.Entry> sites;
+        try {
+            ClassReader cr = new ClassReader(buf,0,len);
+            ClassWriter cw = hierarchy.createClassWriter(cr, COMPUTE_FRAMES);
+            ClassTransformer ct = new ClassTransformer(cw, policy);
+            ct.transform(cr);
             image = cw.toByteArray();
+            sites = ct.getSites();
         } catch (AlreadyUpToDate _) {
             // no need to process this class. it's already up-to-date.
-            return;
+            current.put(name, new BuildState.Record(f,BuildState.hash(buf,0,len)));
+            return null;
         }
 
-        // write it back
-        try (OutputStream out = new FileOutputStream(f)) {
+        // write it back. other threads may be reading it for its super class meanwhile
+        File tmp = new File(f.getPath()+".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
             out.write(image);
         }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        current.put(name, new BuildState.Record(f,BuildState.hash(image,0,image.length)));
+        return sites;
+    }
+
+    /**
+     * Reads the file into {@link #BUFFER}.
+     *
+     * @return
+     *      the length of the file.
+     */
+    private static int read(File f) throws IOException {
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] buf = BUFFER.get();
+            int len = 0, n;
+            while ((n=in.read(buf,len,buf.length-len))>=0) {
+                len += n;
+                if (len==buf.length)
+                    BUFFER.set(buf=Arrays.copyOf(buf,buf.length*2));
+            }
+            return len;
+        }
+    }
+
+    /**
+     * Deletes the originals of the classes that are gone.
+     */
+    private void deleteStaleOriginals(File dir, String prefix, Map<String,File> classes) {
+        File[] files = dir.listFiles();
+        if (files==null)    return;
+        for (File f : files) {
+            String n = f.getName();
+            if (f.isDirectory())
+                deleteStaleOriginals(f, prefix+n+'/', classes);
+            else
+            if (n.endsWith(".class") && !classes.containsKey(prefix+n.substring(0,n.length()-6)))
+                f.delete();
+        }
     }
 
+    /**
+     * Replaces the entries of the classes transformed in this run, and drops those of the classes that are gone.
+     * The rest is kept as the classes that were transformed by the previous runs haven't changed.
+     */
+    private void updateManifest() throws IOException {
+        File manifest = new File(classesDirectory, CallSiteManifest.RESOURCE);
+
+        Set<CallSiteManifest.Entry> entries = new TreeSet<>();
+        if (manifest.exists()) {
+            try (InputStream in = new FileInputStream(manifest)) {
+                entries.addAll(CallSiteManifest.read(in));
+            }
+        }
+        for (Iterator<CallSiteManifest.Entry> itr = entries.iterator(); itr.hasNext(); ) {
+            String caller = itr.next().caller;
+            if (sites.containsKey(caller) || !new File(classesDirectory, caller.replace('.','/')+".class").exists())
+                itr.remove();
+        }
+        for (List<CallSiteManifest.Entry> l : sites.values())
+            entries.addAll(l);
+
+        manifest.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(manifest)) {
+            CallSiteManifest.write(entries, out);
+        }
+    }
 }
@@ -0,0 +1,291 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link Linker} that links to a member whose type has changed in a compatible way.
+ *
+ * <p>
+ * This covers the common ways a library evolves without breaking its source compatibility:
+ *
+ * <ul>
+ * <li>Methods that now return a subtype (covariant return), or that now return something where nothing was expected.
+ * <li>Parameters that now take a wider primitive or reference type, or the boxed/unboxed counterpart.
+ * <li>Fields whose type has been widened in the same way.
+ * <li>Methods and fields that have become static, when referenced as instance members.
+ * </ul>
+ *
+ * <p>
+ * The member of the same name and arity that needs the fewest conversions is chosen, and the link is
+ * a {@link ConstantCallSite} to it, so the adapted call costs the same as the direct one once compiled.
+ * The adapter combinators only depend on the type of the call site and that of the member, so they are
+ * built once per pair of {@link MethodType}s.
+ *
+ * <p>
+ * This linker isn't registered by default. Call {@link #register()} to add it after {@link DefaultLinker}.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class AdaptingLinker extends Linker {
+    @Override
+    public CallSite invokeVirtual(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        return link(caller, findMethod(caller, owner, methodName, signature, false, false), signature.insertParameterTypes(0, owner));
+    }
+
+    @Override
+    public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        return link(caller, findMethod(caller, owner, methodName, signature, true, false), signature);
+    }
+
+    @Override
+    public CallSite invokeInterface(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        return invokeVirtual(caller, methodName, signature, owner);
+    }
+
+    @Override
+    public CallSite invokeSpecial(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        return link(caller, findMethod(caller, owner, methodName, signature, false, true), signature.insertParameterTypes(0, owner));
+    }
+
+    @Override
+    public CallSite invokeConstructor(Lookup caller, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        MethodHandle best = null;
+        int bestCost = Integer.MAX_VALUE;
+        for (Constructor<?> c : owner.getDeclaredConstructors()) {
+            int cost = cost(signature.parameterArray(), c.getParameterTypes(), void.class, void.class);
+            if (cost<bestCost) {
+                try {
+                    best = caller.unreflectConstructor(c);
+                    bestCost = cost;
+                } catch (IllegalAccessException e) {
+                    // not accessible to the caller
+                }
+            }
+        }
+        return link(caller, best, signature.changeReturnType(owner));
+    }
+
+    @Override
+    public CallSite getField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        Field f = findField(owner, fieldName);
+        if (f==null || !isConvertible(f.getType(),fieldType))    return null;
+        return link(caller, unreflect(caller, f, true), MethodType.methodType(fieldType, owner));
+    }
+
+    @Override
+    public CallSite putField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        Field f = findField(owner, fieldName);
+        if (f==null || !isConvertible(fieldType,f.getType()))    return null;
+        return link(caller, unreflect(caller, f, false), MethodType.methodType(void.class, owner, fieldType));
+    }
+
+    @Override
+    public CallSite getStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        Field f = findField(owner, fieldName);
+        if (f==null || !Modifier.isStatic(f.getModifiers()) || !isConvertible(f.getType(),fieldType))    return null;
+        return link(caller, unreflect(caller, f, true), MethodType.methodType(fieldType));
+    }
+
+    @Override
+    public CallSite putStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        Field f = findField(owner, fieldName);
+        if (f==null || !Modifier.isStatic(f.getModifiers()) || !isConvertible(fieldType,f.getType()))    return null;
+        return link(caller, unreflect(caller, f, false), MethodType.methodType(void.class, fieldType));
+    }
+
+    /**
+     * Finds the method that the given signature can be adapted to with the fewest conversions.
+     *
+     * @param isStatic
+     *      true if the reference is to a static method. Otherwise both static and instance methods are considered.
+     */
+    private MethodHandle findMethod(Lookup caller, Class<?> owner, String name, MethodType signature, boolean isStatic, boolean special) {
+        MethodHandle best = null;
+        int bestCost = Integer.MAX_VALUE;
+        for (Method m : methodsOf(owner)) {
+            if (!m.getName().equals(name) || (isStatic && !Modifier.isStatic(m.getModifiers())))
+                continue;
+            int cost = cost(signature.parameterArray(), m.getParameterTypes(), m.getReturnType(), signature.returnType());
+            if (cost<bestCost) {
+                try {
+                    best = special && !Modifier.isStatic(m.getModifiers())
+                            ? caller.unreflectSpecial(m, caller.lookupClass()) : caller.unreflect(m);
+                    bestCost = cost;
+                } catch (IllegalAccessException e) {
+                    // not accessible to the caller
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Methods declared in the class and its supertypes, subtypes first.
+     */
+    private static Set<Method> methodsOf(Class<?> owner) {
+        Set<Method> methods = new LinkedHashSet<>();
+        for (Class<?> c=owner; c!=null; c=c.getSuperclass())
+            Collections.addAll(methods, c.getDeclaredMethods());
+        Collections.addAll(methods, owner.getMethods());    // public methods from interfaces
+        return methods;
+    }
+
+    private static Field findField(Class<?> owner, String name) {
+        for (Class<?> c=owner; c!=null; c=c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields())
+                if (f.getName().equals(name))
+                    return f;
+        }
+        for (Field f : owner.getFields())   // constants from interfaces
+            if (f.getName().equals(name))
+                return f;
+        return null;
+    }
+
+    private static MethodHandle unreflect(Lookup caller, Field f, boolean getter) {
+        try {
+            return getter ? caller.unreflectGetter(f) : caller.unreflectSetter(f);
+        } catch (IllegalAccessException e) {
+            return null;    // not accessible, or a final field
+        }
+    }
+
+    /**
+     * Number of conversions needed to call a method with the given parameter and return types,
+     * or {@link Integer#MAX_VALUE} if it can't be done.
+     */
+    private static int cost(Class<?>[] from, Class<?>[] to, Class<?> returned, Class<?> expected) {
+        if (from.length!=to.length)     return Integer.MAX_VALUE;
+        int cost = 0;
+        for (int i=0; i<from.length; i++) {
+            if (from[i]==to[i])     continue;
+            if (!isConvertible(from[i],to[i]))  return Integer.MAX_VALUE;
+            cost++;
+        }
+        if (returned!=expected) {
+            if (expected!=void.class && !isConvertible(returned,expected))    return Integer.MAX_VALUE;
+            cost++;
+        }
+        return cost;
+    }
+
+    /**
+     * Can a value of the type 'from' be passed where 'to' is expected, without a cast that could fail?
+     */
+    static boolean isConvertible(Class<?> from, Class<?> to) {
+        if (from==to)   return true;
+        if (from.isPrimitive()) {
+            if (to.isPrimitive())
+                return isWidening(from,to);
+            // boxing
+            Class<?> w = WRAPPERS.get(from);
+            return w!=null && to.isAssignableFrom(w);
+        } else {
+            if (!to.isPrimitive())
+                return to.isAssignableFrom(from);
+            // unboxing
+            Class<?> p = PRIMITIVES.get(from);
+            return p!=null && (p==to || isWidening(p,to));
+        }
+    }
+
+    private static boolean isWidening(Class<?> from, Class<?> to) {
+        if (to==char.class)     return false;
+        // char widens to whatever short widens to, except for short itself
+        int f = WIDENING.indexOf(from==char.class ? short.class : from), t = WIDENING.indexOf(to);
+        return f>=0 && t>f;
+    }
+
+    private static final List<Class<?>> WIDENING = new ArrayList<Class<?>>();
+    private static final Map<Class<?>,Class<?>> WRAPPERS = new HashMap<>();
+    private static final Map<Class<?>,Class<?>> PRIMITIVES = new HashMap<>();
+
+    static {
+        Collections.addAll(WIDENING, byte.class, short.class, int.class, long.class, float.class, double.class);
+
+        Class<?>[] p = {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class};
+        Class<?>[] w = {Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class};
+        for (int i=0; i<p.length; i++) {
+            WRAPPERS.put(p[i],w[i]);
+            PRIMITIVES.put(w[i],p[i]);
+        }
+    }
+
+    /**
+     * Adapts the member to the type of the call site.
+     */
+    private static CallSite link(Lookup caller, MethodHandle target, MethodType type) {
+        if (target==null)   return null;
+        MethodHandle adapter = adapter(caller.lookupClass(), target.type(), type);
+        return new ConstantCallSite(adapter.bindTo(target));
+    }
+
+    /**
+     * For each class loader, the adapters built for it, keyed by the pair of types.
+     * Kept per loader as the types refer to its classes.
+     */
+    private static final ClassLoaderLocal<ConcurrentMap<Shape,MethodHandle>> ADAPTERS = new ClassLoaderLocal<ConcurrentMap<Shape,MethodHandle>>() {
+        @Override
+        protected ConcurrentMap<Shape,MethodHandle> create(ClassLoader cl) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Gets the method handle that takes the target as the first argument and invokes it with the arguments
+     * of the call site, converting them along the way.
+     */
+    private static MethodHandle adapter(Class<?> caller, MethodType actual, MethodType expected) {
+        ConcurrentMap<Shape,MethodHandle> adapters = ADAPTERS.get(caller);
+        Shape key = new Shape(actual, expected);
+        MethodHandle h = adapters.get(key);
+        if (h==null) {
+            h = MethodHandles.exactInvoker(actual);
+            if (actual.parameterCount()+1==expected.parameterCount())   // static member referenced as an instance member
+                h = MethodHandles.dropArguments(h, 1, expected.parameterType(0));
+            h = h.asType(expected.insertParameterTypes(0, MethodHandle.class));
+            MethodHandle v = adapters.putIfAbsent(key,h);
+            if (v!=null)    h = v;
+        }
+        return h;
+    }
+
+    private static final class Shape {
+        private final MethodType actual, expected;
+
+        Shape(MethodType actual, MethodType expected) {
+            this.actual = actual;
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape))  return false;
+            Shape that = (Shape) o;
+            return actual.equals(that.actual) && expected.equals(that.expected);
+        }
+
+        @Override
+        public int hashCode() {
+            return actual.hashCode()*31 + expected.hashCode();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.kohsuke.nomoretears;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * List of the invokedynamic call sites that the class file transformation has produced.
+ *
+ * <p>
+ * The build writes this as the {@value #RESOURCE} resource next to the transformed classes, one call site
+ * per line, so that {@link Warmup} can link them before they are executed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class CallSiteManifest {
+    private CallSiteManifest() {}
+
+    public static final String RESOURCE = "META-INF/no-more-tears/sites";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * One call site, in the form of "caller operation owner name descriptor".
+     */
+    public static final class Entry implements Comparable<Entry> {
+        /**
+         * Fully qualified name of the class that contains the call site.
+         */
+        public final String caller;
+        public final Operation operation;
+        /**
+         * Fully qualified name of the class that the method/field is supposed to belong to.
+         */
+        public final String owner;
+        public final String name;
+        /**
+         * Method descriptor of the invokedynamic call site.
+         */
+        public final String descriptor;
+
+        public Entry(String caller, Operation operation, String owner, String name, String descriptor) {
+            this.caller = caller;
+            this.operation = operation;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * Parses the string produced by {@link #toString()}.
+         */
+        public static Entry parse(String line) {
+            String[] tokens = line.split(" ");
+            if (tokens.length!=5)
+                throw new IllegalArgumentException("Malformed call site: "+line);
+            return new Entry(tokens[0], Operation.fromBootstrapName(tokens[1]), tokens[2], tokens[3], tokens[4]);
+        }
+
+        @Override
+        public String toString() {
+            return caller+' '+operation+' '+owner+' '+name+' '+descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && compareTo((Entry)o)==0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((caller.hashCode()*31+operation.ordinal())*31+owner.hashCode())*31+name.hashCode())*31+descriptor.hashCode();
+        }
+
+        /**
+         * Orders entries as their {@link #toString()} would be, without building them, as the build sorts
+         * every call site it transforms.
+         */
+        public int compareTo(Entry that) {
+            int r = this.caller.compareTo(that.caller);
+            if (r==0)   r = this.operation.toString().compareTo(that.operation.toString());
+            if (r==0)   r = this.owner.compareTo(that.owner);
+            if (r==0)   r = this.name.compareTo(that.name);
+            if (r==0)   r = this.descriptor.compareTo(that.descriptor);
+            return r;
+        }
+    }
+
+    public static List<Entry> read(InputStream in) throws IOException {
+        List<Entry> r = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        String line;
+        while ((line=reader.readLine())!=null) {
+            line = line.trim();
+            if (line.length()>0)
+                r.add(Entry.parse(line));
+        }
+        return r;
+    }
+
+    public static void write(Collection<Entry> entries, OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, UTF8);
+        for (Entry e : entries)
+            w.write(e+"\n");
+        w.flush();
+    }
+}
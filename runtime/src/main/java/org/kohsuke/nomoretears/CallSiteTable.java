@@ -0,0 +1,39 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * This annotation is added by the class transformation to list the references that the invokedynamic
+ * call sites of the class make, so that {@link LinkBatch} can link all of them together.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface CallSiteTable {
+    /*
+        The nth reference is made of the nth element of each array. These strings are all in the constant pool
+        for the invokedynamic instructions already, so the table adds only a few bytes per reference.
+     */
+
+    /**
+     * Names of the bootstrap methods, like "invokeVirtual".
+     */
+    String[] operations();
+
+    /**
+     * Fully qualified names of the owner classes.
+     */
+    String[] owners();
+
+    String[] names();
+
+    /**
+     * Method descriptors of the invokedynamic call sites.
+     */
+    String[] descriptors();
+}
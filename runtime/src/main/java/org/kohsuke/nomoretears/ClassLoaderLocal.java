@@ -0,0 +1,61 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Associates a value with a class loader, without keeping the class loader from being garbage collected.
+ *
+ * <p>
+ * The value is attached through {@link ClassValue} to one of the classes that the loader defined,
+ * so it's reachable only as long as the loader itself is, even if it refers to classes of that loader.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+abstract class ClassLoaderLocal<T> {
+    /**
+     * For each class loader, the class that carries the value.
+     */
+    private final Map<ClassLoader,WeakReference<Class<?>>> representatives = new WeakHashMap<>();
+
+    private final ClassValue<T> values = new ClassValue<T>() {
+        @Override
+        protected T computeValue(Class<?> type) {
+            return create(type.getClassLoader());
+        }
+    };
+
+    /**
+     * Caches the lookup through {@link #representatives} so that the common path is lock-free.
+     */
+    private final ClassValue<T> shortcuts = new ClassValue<T>() {
+        @Override
+        protected T computeValue(Class<?> type) {
+            return values.get(representativeOf(type));
+        }
+    };
+
+    /**
+     * Creates the value for a class loader that's seen for the first time.
+     */
+    protected abstract T create(ClassLoader cl);
+
+    /**
+     * Gets the value associated with the class loader of the given class.
+     */
+    public T get(Class<?> c) {
+        return shortcuts.get(c);
+    }
+
+    private Class<?> representativeOf(Class<?> c) {
+        ClassLoader cl = c.getClassLoader();
+        synchronized (representatives) {
+            WeakReference<Class<?>> ref = representatives.get(cl);
+            Class<?> r = ref!=null ? ref.get() : null;
+            if (r==null)
+                representatives.put(cl, new WeakReference<Class<?>>(r=c));
+            return r;
+        }
+    }
+}
@@ -2,17 +2,35 @@ package org.kohsuke.nomoretears;
 
 import java.lang.invoke.CallSite;
 import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * {@link Linker} that resolves to the original target specified in the code.
  *
+ * <p>
+ * References to members that don't exist are turned down by consulting {@link MemberIndex} first,
+ * without going through the exception that the lookup would throw.
+ *
+ * <p>
+ * Static final fields of the classes that have been initialized are linked to their values, which the JIT
+ * can fold just like it would for <tt>getstatic</tt>. Those of the classes that haven't, such as on
+ * the first access that initializes the class, are linked to a {@link StaticFinalCallSite}, which reads
+ * the getter until the class has been initialized, and then switches to the value.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class DefaultLinker extends Linker {
     @Override
     public CallSite invokeVirtual(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasMethod(owner, methodName, signature, false))
+            return null;
         try {
             return new ConstantCallSite(caller.findVirtual(owner, methodName, signature));
         } catch (ReflectiveOperationException e) {
@@ -22,6 +40,8 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasMethod(owner, methodName, signature, true))
+            return null;
         try {
             return new ConstantCallSite(caller.findStatic(owner, methodName, signature));
         } catch (ReflectiveOperationException e) {
@@ -31,6 +51,8 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite invokeInterface(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasMethod(owner, methodName, signature, false))
+            return null;
         try {
             return new ConstantCallSite(caller.findVirtual(owner, methodName, signature));
         } catch (ReflectiveOperationException e) {
@@ -40,8 +62,12 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite invokeSpecial(Lookup caller, String methodName, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasMethod(owner, methodName, signature, false))
+            return null;
         try {
-            return new ConstantCallSite(caller.findSpecial(owner, methodName, signature, caller.lookupClass()));
+            MethodHandle h = caller.findSpecial(owner, methodName, signature, caller.lookupClass());
+            // the receiver is the caller, but the call site takes the owner when it's a superclass
+            return new ConstantCallSite(h.asType(h.type().changeParameterType(0, owner)));
         } catch (ReflectiveOperationException e) {
             return null;
         }
@@ -49,6 +75,8 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite invokeConstructor(Lookup caller, MethodType signature, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasConstructor(owner, signature))
+            return null;
         try {
             return new ConstantCallSite(caller.findConstructor(owner, signature));
         } catch (ReflectiveOperationException e) {
@@ -58,6 +86,8 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite getField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasField(owner, fieldName, fieldType, false))
+            return null;
         try {
             return new ConstantCallSite(caller.findGetter(owner, fieldName, fieldType));
         } catch (ReflectiveOperationException e) {
@@ -67,6 +97,8 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite putField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasField(owner, fieldName, fieldType, false))
+            return null;
         try {
             return new ConstantCallSite(caller.findSetter(owner, fieldName, fieldType));
         } catch (ReflectiveOperationException e) {
@@ -76,15 +108,76 @@ public class DefaultLinker extends Linker {
 
     @Override
     public CallSite getStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasField(owner, fieldName, fieldType, true))
+            return null;
+        MethodHandle h;
         try {
-            return new ConstantCallSite(caller.findStaticGetter(owner, fieldName, fieldType));
+            h = caller.findStaticGetter(owner, fieldName, fieldType);
         } catch (ReflectiveOperationException e) {
             return null;
         }
+
+        Class<?> declarer = MemberIndex.getFinalStaticDeclarer(owner, fieldName, fieldType);
+        if (declarer!=null && declarer!=System.class && SHOULD_BE_INITIALIZED!=null) {
+            if (!isInitialized(declarer))
+                return new StaticFinalCallSite(h, declarer);
+            // the value can't change any more, so let the JIT see it as a constant like it would for getstatic
+            try {
+                h = MethodHandles.constant(fieldType, h.invokeWithArguments());
+            } catch (Throwable t) {
+                // keep the getter, which will run into the same problem when it's invoked
+            }
+        }
+        return new ConstantCallSite(h);
+    }
+
+    /**
+     * Has the static initializer of the class run to completion? False if that can't be told.
+     *
+     * <p>
+     * A class that is being initialized doesn't count, as its static finals might not have been assigned yet.
+     */
+    static boolean isInitialized(Class<?> c) {
+        if (SHOULD_BE_INITIALIZED==null)
+            return false;
+        try {
+            return !(Boolean)SHOULD_BE_INITIALIZED.invoke(UNSAFE, c);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DefaultLinker.class.getName());
+
+    /**
+     * sun.misc.Unsafe and its shouldBeInitialized method, available from Java 8 up to 21.
+     * Static finals are linked to their getters where they aren't.
+     */
+    private static final Object UNSAFE;
+    private static final Method SHOULD_BE_INITIALIZED;
+
+    static {
+        Object u = null;
+        Method m = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+            m = c.getMethod("shouldBeInitialized", Class.class);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOGGER.log(Level.FINE, "Unsafe.shouldBeInitialized is unavailable, so static finals are linked to their getters", e);
+            u = null;
+            m = null;
+        }
+        UNSAFE = u;
+        SHOULD_BE_INITIALIZED = m;
     }
 
     @Override
     public CallSite putStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException {
+        if (!MemberIndex.hasField(owner, fieldName, fieldType, true))
+            return null;
         try {
             return new ConstantCallSite(caller.findStaticSetter(owner, fieldName, fieldType));
         } catch (ReflectiveOperationException e) {
@@ -0,0 +1,23 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+/**
+ * Keeps the class transformation away from the annotated class, method, or constructor,
+ * so that its references are linked by JVM as usual.
+ *
+ * <p>
+ * Use this on hot code that only refers to stable classes, to avoid the cost of lazy linking altogether.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({TYPE,METHOD,CONSTRUCTOR})
+public @interface DirectLink {
+}
@@ -0,0 +1,75 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Links all the references listed in the {@link CallSiteTable} of a class on the first bootstrap in it,
+ * when {@link LinkerBootstrap#BATCH} is set.
+ *
+ * <p>
+ * The owner classes are resolved once for all the references, and the linkers get them all at once through
+ * {@link Linker#link(Lookup, List)}. The references that can't be resolved are left for their call sites,
+ * which report the error if they are ever executed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class LinkBatch {
+    private LinkBatch() {}
+
+    /**
+     * Set once the batch of the class has been run, or is running.
+     */
+    private static final ClassValue<AtomicBoolean> STARTED = new ClassValue<AtomicBoolean>() {
+        @Override
+        protected AtomicBoolean computeValue(Class<?> type) {
+            return new AtomicBoolean();
+        }
+    };
+
+    /**
+     * Links the references of the caller class, unless that has been done already.
+     */
+    static void run(Lookup caller) {
+        Class<?> c = caller.lookupClass();
+        if (STARTED.get(c).getAndSet(true))
+            return;
+        CallSiteTable table = c.getAnnotation(CallSiteTable.class);
+        if (table==null)
+            return;     // transformed by an older version
+
+        String[] operations = table.operations(), owners = table.owners(), names = table.names(), descriptors = table.descriptors();
+        List<LinkRequest> requests = new ArrayList<>();
+        Map<String,Class<?>> resolved = new HashMap<>();
+        for (int i=0; i<operations.length; i++) {
+            try {
+                Class<?> owner = resolved.get(owners[i]);
+                if (owner==null && !resolved.containsKey(owners[i])) {
+                    try {
+                        owner = LinkerBootstrap.resolve(caller, owners[i]);
+                    } catch (ClassNotFoundException | LinkageError x) {
+                        LOGGER.log(Level.FINE, "Unable to resolve "+owners[i]+" from "+c, x);
+                    }
+                    resolved.put(owners[i], owner);
+                }
+                if (owner==null)
+                    continue;
+                MethodType type = MethodType.fromMethodDescriptorString(descriptors[i], c.getClassLoader());
+                requests.add(new LinkRequest(Operation.fromBootstrapName(operations[i]), names[i], type, owner));
+            } catch (RuntimeException | LinkageError x) {
+                LOGGER.log(Level.FINE, "Skipping "+operations[i]+" "+owners[i]+"."+names[i]+" of "+c, x);
+            }
+        }
+
+        LinkCache.linkAll(caller, requests);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LinkBatch.class.getName());
+}
@@ -0,0 +1,317 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of link results shared by all the call sites that make the same reference.
+ *
+ * <p>
+ * Hundreds of call sites often refer to the same member, and without this cache each of them
+ * would walk the whole chain of linkers on its own. Results are keyed by the operation,
+ * the owner class, the member name and type, and the package of the caller, which is what determines
+ * the public and package-private members accessible to it. References that can resolve to a private or protected
+ * member, whose access depends on the caller class itself, such as those of nestmates and subclasses,
+ * are keyed by the caller class instead. Concurrent bootstraps of the same reference are collapsed into
+ * one linking run, and the other threads wait for its outcome.
+ *
+ * <p>
+ * Only {@link ConstantCallSite}s are retained, or handed to the threads that waited for them, as other call sites
+ * can carry per-site state. Those threads link the reference again on their own otherwise.
+ * Registering or unregistering a linker discards the links to the owners that the linker claims, made for
+ * the classes that can see the linker.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class LinkCache {
+    private LinkCache() {}
+
+    private static final ClassLoaderLocal<ConcurrentMap<Key,Link>> CACHES = new ClassLoaderLocal<ConcurrentMap<Key,Link>>() {
+        @Override
+        protected ConcurrentMap<Key,Link> create(ClassLoader cl) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /**
+     * Number of bootstraps that reused a link computed for another call site.
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * Number of bootstraps that had to run the linkers.
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * Links the reference through the cache.
+     */
+    static CallSite link(Operation op, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+        ConcurrentMap<Key,Link> cache = CACHES.get(caller.lookupClass());
+        Key key = new Key(op, caller.lookupClass(), name, type, owner);
+
+        while (true) {
+            Link link;
+            boolean mine = false;
+            while (true) {
+                link = cache.get(key);
+                if (link!=null && !link.isStale())
+                    break;
+                Link n = new Link(cache, key, op, caller, name, type, owner);
+                if (link==null ? cache.putIfAbsent(key,n)==null : cache.replace(key,link,n)) {
+                    link = n;
+                    mine = true;
+                    break;
+                }
+            }
+
+            if (mine) {
+                MISSES.incrementAndGet();
+                link.run();
+                return link.await();
+            }
+            if (link.runner==Thread.currentThread()) {
+                // linking this reference recursively requires the same reference. waiting would deadlock.
+                MISSES.incrementAndGet();
+                return LinkerBootstrap.linkNow(op, caller, name, type, owner);
+            }
+            CallSite c = link.await();
+            if (c instanceof ConstantCallSite) {
+                HITS.incrementAndGet();
+                return c;
+            }
+            if (c!=null) {
+                // not to be shared, just like it's not retained
+                MISSES.incrementAndGet();
+                return LinkerBootstrap.linkNow(op, caller, name, type, owner);
+            }
+            // the batch that this link was a part of left it to us
+        }
+    }
+
+    /**
+     * Links the references of the same caller together, and puts the links into the cache
+     * for their call sites to pick up. The references that are in the cache already are skipped.
+     *
+     * <p>
+     * Only the {@link ConstantCallSite}s are kept. The other references, including those that failed to link,
+     * are left for their own call sites, which then link them like they normally would.
+     */
+    static void linkAll(Lookup caller, List<LinkRequest> requests) {
+        ConcurrentMap<Key,Link> cache = CACHES.get(caller.lookupClass());
+        List<LinkRequest> mine = new ArrayList<>();
+        List<Link> links = new ArrayList<>();
+
+        for (LinkRequest r : requests) {
+            Key key = new Key(r.getOperation(), caller.lookupClass(), r.getName(), r.getType(), r.getOwner());
+            Link link = cache.get(key);
+            if (link!=null && !link.isStale())
+                continue;
+            Link n = new Link(cache, key, r.getOperation(), caller, r.getName(), r.getType(), r.getOwner());
+            // bootstraps of these references while the linkers run on this thread mustn't wait for the batch
+            n.runner = Thread.currentThread();
+            if (link==null ? cache.putIfAbsent(key,n)==null : cache.replace(key,link,n)) {
+                mine.add(r);
+                links.add(n);
+            }
+        }
+        if (mine.isEmpty())
+            return;
+
+        MISSES.addAndGet(mine.size());
+        try {
+            LinkerBootstrap.linkNow(caller, mine);
+        } finally {
+            for (int i=0; i<links.size(); i++) {
+                CallSite c = mine.get(i).getResult();
+                if (c instanceof ConstantCallSite)
+                    links.get(i).complete(c);
+                else
+                    links.get(i).abandon();
+            }
+        }
+    }
+
+    /**
+     * What the access of the caller to the member depends on, which is the package of the caller,
+     * or the caller class itself.
+     */
+    static Object context(Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+        if (owner==caller || isRestricted(op, name, type, owner))
+            return caller;
+        String n = caller.getName();
+        return n.substring(0,Math.max(0,n.lastIndexOf('.')));
+    }
+
+    /**
+     * Can the reference resolve to a private or protected member? True if that can't be told.
+     */
+    private static boolean isRestricted(Operation op, String name, MethodType type, Class<?> owner) {
+        switch (op) {
+        case INVOKE_VIRTUAL:
+        case INVOKE_INTERFACE:
+            return MemberIndex.isRestrictedMethod(owner, name, type.dropParameterTypes(0,1));
+        case INVOKE_STATIC:
+            return MemberIndex.isRestrictedMethod(owner, name, type);
+        case INVOKE_CONSTRUCTOR:
+            return MemberIndex.isRestrictedConstructor(owner, type.changeReturnType(void.class));
+        case GET_FIELD:
+        case GET_STATIC:
+            return MemberIndex.isRestrictedField(owner, name, type.returnType());
+        case PUT_FIELD:
+            return MemberIndex.isRestrictedField(owner, name, type.parameterType(1));
+        case PUT_STATIC:
+            return MemberIndex.isRestrictedField(owner, name, type.parameterType(0));
+        default:
+            // invokespecial depends on the caller class in any case
+            return true;
+        }
+    }
+
+    private static final class Key {
+        private final Operation op;
+        private final Class<?> owner;
+        private final String name;
+        private final MethodType type;
+        /**
+         * Package name of the caller, or the caller class itself when the access depends on it.
+         */
+        private final Object context;
+
+        Key(Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+            this.op = op;
+            this.owner = owner;
+            this.name = name;
+            this.type = type;
+            this.context = context(op, caller, name, type, owner);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))    return false;
+            Key that = (Key) o;
+            return op==that.op && owner==that.owner && name.equals(that.name)
+                && type.equals(that.type) && context.equals(that.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((op.hashCode()*31 + owner.hashCode())*31 + name.hashCode())*31 + type.hashCode();
+        }
+    }
+
+    /**
+     * Linking run for one {@link Key}, which other call sites of the same key wait for.
+     */
+    private static final class Link extends FutureTask<CallSite> {
+        private final ConcurrentMap<Key,Link> cache;
+        private final Key key;
+        /**
+         * Invalidated when the linkers that might link this reference change.
+         */
+        private final SwitchPoint switchPoint;
+        private volatile Thread runner;
+
+        Link(ConcurrentMap<Key,Link> cache, Key key, final Operation op, final Lookup caller, final String name, final MethodType type, final Class<?> owner) {
+            super(new Callable<CallSite>() {
+                public CallSite call() throws Exception {
+                    return LinkerBootstrap.linkNow(op, caller, name, type, owner);
+                }
+            });
+            this.cache = cache;
+            this.key = key;
+            this.switchPoint = LinkerRegistry.forClass(caller.lookupClass()).switchPoint(owner);
+        }
+
+        /**
+         * Sets the outcome of a link that was computed elsewhere.
+         */
+        void complete(CallSite c) {
+            runner = null;
+            set(c);
+        }
+
+        /**
+         * Removes the link from the cache without an outcome. Threads that wait for it link the reference themselves.
+         */
+        void abandon() {
+            runner = null;
+            cache.remove(key,this);
+            set(null);
+        }
+
+        boolean isStale() {
+            return switchPoint.hasBeenInvalidated();
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                runner = null;
+            }
+        }
+
+        @Override
+        protected void done() {
+            try {
+                if (get() instanceof ConstantCallSite)
+                    return;
+            } catch (InterruptedException | ExecutionException e) {
+                // failures are not cached
+            }
+            cache.remove(key,this);
+        }
+
+        /**
+         * Waits for the outcome of the linking and reports it as if it were done by the current thread.
+         *
+         * @return
+         *      null if the link has been {@linkplain #abandon() abandoned}.
+         */
+        CallSite await() throws ReflectiveOperationException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof ReflectiveOperationException)
+                    throw (ReflectiveOperationException)t;
+                if (t instanceof RuntimeException)
+                    throw (RuntimeException)t;
+                if (t instanceof Error)
+                    throw (Error)t;
+                throw new Error(t);
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
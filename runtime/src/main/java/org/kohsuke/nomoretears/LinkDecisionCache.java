@@ -0,0 +1,388 @@
+package org.kohsuke.nomoretears;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodType;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, across JVM restarts, which linker linked a reference when the first linker to try didn't.
+ *
+ * <p>
+ * Without this, every start of the application runs the whole chain of linkers for the references
+ * that need compatibility linking, even though nothing has changed since the last start.
+ * Each decision is validated by a fingerprint of the class file of the owner and one of the linkers
+ * in effect, and when either doesn't match, the decision is dropped and the linkers are run as usual.
+ * On a hit, only the linker that won the last time gets consulted.
+ *
+ * <p>
+ * The fingerprint of the class file is the CRC that the central directory of its jar records,
+ * or the size and the timestamp of the file, so that the class file itself is never read.
+ *
+ * <p>
+ * This is enabled by pointing the system property <tt>org.kohsuke.nomoretears.LinkDecisionCache.file</tt>
+ * to a file. The file is memory-mapped when the runtime starts and decisions are looked up in place,
+ * through the hash table at its head. The decisions made since then are kept in memory on top of it,
+ * and the two are merged and written back at shutdown.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class LinkDecisionCache {
+    private LinkDecisionCache() {}
+
+    private static final class Decision {
+        final int ownerFingerprint;
+        final int linkersFingerprint;
+        /**
+         * Class name of the linker that linked the reference.
+         */
+        final String winner;
+
+        Decision(int ownerFingerprint, int linkersFingerprint, String winner) {
+            this.ownerFingerprint = ownerFingerprint;
+            this.linkersFingerprint = linkersFingerprint;
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * Marks in {@link #DECISIONS} the decision of the mapped file that has been dropped.
+     */
+    private static final Decision FORGOTTEN = new Decision(0,0,null);
+
+    private static final int MAGIC = 0x4e4d5402;   // "NMT" + format version
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final File FILE;
+
+    /**
+     * Decisions made or dropped since the file was loaded, which take precedence over {@link #mapped}.
+     */
+    private static final ConcurrentMap<String,Decision> DECISIONS = new ConcurrentHashMap<>();
+
+    /**
+     * The file loaded last, if any.
+     */
+    private static volatile Table mapped;
+
+    private static final ClassValue<Integer> FINGERPRINTS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return fingerprint(type);
+        }
+    };
+
+    /**
+     * The decisions of a memory-mapped file, which is laid out as follows:
+     *
+     * <pre>
+     * int magic
+     * int slots                          power of two, at least twice the number of decisions
+     * (int hash, int offset)[slots]      open addressing with linear probing, by the hash code of the key.
+     *                                    offset is from the head of the file, 0 for an empty slot
+     * (short+bytes key, int ownerFingerprint, int linkersFingerprint, short+bytes winner)...
+     * </pre>
+     *
+     * Strings are in UTF-8, and the buffer is only read with absolute positions, so that threads can share it.
+     */
+    private static final class Table {
+        private final ByteBuffer buf;
+        private final int slots;
+
+        private Table(ByteBuffer buf, int slots) {
+            this.buf = buf;
+            this.slots = slots;
+        }
+
+        /**
+         * @return null if the file is of another format.
+         */
+        static Table open(ByteBuffer buf) {
+            if (buf.limit()<8 || buf.getInt(0)!=MAGIC)
+                return null;
+            int slots = buf.getInt(4);
+            if (slots<=0 || Integer.bitCount(slots)!=1 || 8+(long)slots*8>buf.limit())
+                return null;
+            return new Table(buf,slots);
+        }
+
+        Decision get(String key) {
+            byte[] k = key.getBytes(UTF8);
+            int h = key.hashCode();
+            try {
+                for (int n=0, i=h&(slots-1); n<slots; n++, i=(i+1)&(slots-1)) {
+                    int offset = buf.getInt(12+i*8);
+                    if (offset==0)
+                        return null;
+                    if (buf.getInt(8+i*8)==h && matches(offset,k))
+                        return decision(offset+2+k.length);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                // corrupted. treat it as a miss
+            }
+            return null;
+        }
+
+        private boolean matches(int offset, byte[] k) {
+            if ((buf.getShort(offset)&0xFFFF)!=k.length)
+                return false;
+            for (int i=0; i<k.length; i++)
+                if (buf.get(offset+2+i)!=k[i])
+                    return false;
+            return true;
+        }
+
+        private Decision decision(int at) {
+            return new Decision(buf.getInt(at), buf.getInt(at+4), string(at+8));
+        }
+
+        private String string(int at) {
+            byte[] b = new byte[buf.getShort(at)&0xFFFF];
+            ByteBuffer d = buf.duplicate();
+            d.position(at+2);
+            d.get(b);
+            return new String(b,UTF8);
+        }
+
+        /**
+         * Copies out every decision, which only happens when the decisions are written back.
+         */
+        void copyTo(Map<String,Decision> decisions) {
+            for (int i=0; i<slots; i++) {
+                int offset = buf.getInt(12+i*8);
+                if (offset!=0) {
+                    String key = string(offset);
+                    decisions.put(key, decision(offset+2+key.getBytes(UTF8).length));
+                }
+            }
+        }
+    }
+
+    static boolean isEnabled() {
+        return FILE!=null;
+    }
+
+    /**
+     * Finds the linker that linked the same reference the last time.
+     *
+     * @return null if there's no valid decision.
+     */
+    static Linker recall(LinkerIndex index, Linker[] candidates, Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+        String key = key(op, caller, name, type, owner);
+        Decision d = DECISIONS.get(key);
+        if (d==null) {
+            Table t = mapped;
+            if (t!=null)    d = t.get(key);
+        }
+        if (d==null || d==FORGOTTEN)    return null;
+
+        if (d.linkersFingerprint==index.fingerprint && d.ownerFingerprint==FINGERPRINTS.get(owner)) {
+            for (Linker l : candidates) {
+                if (l.getClass().getName().equals(d.winner))
+                    return l;
+            }
+        }
+        DECISIONS.put(key,FORGOTTEN);
+        return null;
+    }
+
+    /**
+     * Discards the decision that didn't hold.
+     */
+    static void forget(Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+        DECISIONS.put(key(op, caller, name, type, owner), FORGOTTEN);
+    }
+
+    /**
+     * Records the linker that linked the reference.
+     */
+    static void remember(LinkerIndex index, Linker winner, Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+        int f = FINGERPRINTS.get(owner);
+        if (f!=0)
+            DECISIONS.put(key(op, caller, name, type, owner), new Decision(f, index.fingerprint, winner.getClass().getName()));
+    }
+
+    /**
+     * Identifies the reference across JVMs. Just like {@link LinkCache}, the package of the caller is what matters
+     * unless the access depends on the caller itself.
+     */
+    private static String key(Operation op, Class<?> caller, String name, MethodType type, Class<?> owner) {
+        Object context = LinkCache.context(op, caller, name, type, owner);
+        String c = context instanceof Class ? ((Class<?>)context).getName() : (String)context;
+        return op+" "+c+" "+owner.getName()+" "+name+" "+type.toMethodDescriptorString();
+    }
+
+    /**
+     * Fingerprints the class file without reading it, or returns 0 if it can't be found.
+     */
+    private static int fingerprint(Class<?> c) {
+        String res = c.getName().replace('.','/')+".class";
+        ClassLoader cl = c.getClassLoader();
+        URL url = cl!=null ? cl.getResource(res) : ClassLoader.getSystemResource(res);
+        if (url==null)  return 0;
+        try {
+            long h;
+            if (url.getProtocol().equals("file")) {
+                File f = new File(url.toURI());
+                h = f.length()*31 + f.lastModified();
+            } else {
+                URLConnection con = url.openConnection();
+                if (con instanceof JarURLConnection) {
+                    // from the central directory, which the jar file has already read
+                    JarEntry e = ((JarURLConnection)con).getJarEntry();
+                    h = e.getCrc()!=-1 ? e.getCrc() : e.getSize()*31 + e.getTime();
+                } else {
+                    // such as the runtime image, which changes along with the JVM
+                    h = (con.getContentLengthLong()*31 + con.getLastModified())*31 + System.getProperty("java.version").hashCode();
+                }
+            }
+            return (int)(h^(h>>>32)) | 1;   // never 0
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Maps the file, whose decisions are then used along with the ones already known.
+     */
+    static void load(File f) throws IOException {
+        Table t;
+        try (RandomAccessFile raf = new RandomAccessFile(f,"r")) {
+            // the mapping stays valid after the file is closed
+            t = Table.open(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        }
+        if (t==null)
+            return;     // incompatible format. start afresh
+
+        Table old = mapped;
+        if (old!=null) {
+            Map<String,Decision> decisions = new HashMap<>();
+            old.copyTo(decisions);
+            for (Map.Entry<String,Decision> e : decisions.entrySet())
+                DECISIONS.putIfAbsent(e.getKey(), e.getValue());
+        }
+        // the file brings back the decisions that were dropped
+        for (Map.Entry<String,Decision> e : DECISIONS.entrySet()) {
+            if (e.getValue()==FORGOTTEN && t.get(e.getKey())!=null)
+                DECISIONS.remove(e.getKey(), FORGOTTEN);
+        }
+        mapped = t;
+    }
+
+    /**
+     * Writes the decisions to the file. This happens automatically at shutdown.
+     */
+    public static void save() throws IOException {
+        if (FILE!=null)
+            save(FILE);
+    }
+
+    /**
+     * Writes the decisions to the given file, replacing it atomically so that a crash won't leave a half-written file.
+     */
+    static void save(File file) throws IOException {
+        Map<String,Decision> decisions = new HashMap<>();
+        Table t = mapped;
+        if (t!=null)
+            t.copyTo(decisions);
+        for (Map.Entry<String,Decision> e : DECISIONS.entrySet()) {
+            if (e.getValue()==FORGOTTEN)
+                decisions.remove(e.getKey());
+            else
+                decisions.put(e.getKey(), e.getValue());
+        }
+
+        int slots = 2;
+        while (slots<decisions.size()*2)
+            slots <<= 1;
+        int[] hashes = new int[slots];
+        int[] offsets = new int[slots];
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream r = new DataOutputStream(records);
+        int base = 8+slots*8;
+        for (Map.Entry<String,Decision> e : decisions.entrySet()) {
+            int h = e.getKey().hashCode();
+            int i = h&(slots-1);
+            while (offsets[i]!=0)
+                i = (i+1)&(slots-1);
+            hashes[i] = h;
+            offsets[i] = base+r.size();
+
+            writeString(r, e.getKey());
+            r.writeInt(e.getValue().ownerFingerprint);
+            r.writeInt(e.getValue().linkersFingerprint);
+            writeString(r, e.getValue().winner);
+        }
+
+        File tmp = new File(file.getPath()+".tmp");
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeInt(slots);
+            for (int i=0; i<slots; i++) {
+                out.writeInt(hashes[i]);
+                out.writeInt(offsets[i]);
+            }
+            records.writeTo(out);
+            out.flush();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Failed to rename "+tmp+" to "+file);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LinkDecisionCache.class.getName());
+
+    static {
+        String path = System.getProperty(LinkDecisionCache.class.getName()+".file");
+        File f = path!=null ? new File(path) : null;
+        if (f!=null) {
+            if (f.exists()) {
+                try {
+                    load(f);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load "+f, e);
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread("Saving "+f) {
+                @Override
+                public void run() {
+                    try {
+                        save();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to save link decisions", e);
+                    }
+                }
+            });
+        }
+        FILE = f;
+    }
+}
@@ -0,0 +1,30 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+
+/**
+ * Receives an event for each reference that the linkers link.
+ *
+ * <p>
+ * This is the place to bridge to an event recorder, to correlate startup latency with linking.
+ * <tt>no-more-tears-jfr</tt> does that for JDK Flight Recorder.
+ *
+ * @see LinkerStats#addListener(LinkListener)
+ * @author Kohsuke Kawaguchi
+ */
+public interface LinkListener {
+    /**
+     * Called after the linkers have run for a reference, on the thread that ran them.
+     *
+     * @param caller
+     *      The class that contains the call site.
+     * @param type
+     *      Type of the invokedynamic call site.
+     * @param winner
+     *      The linker that linked the reference, or null if none did and the bootstrap fails with {@link LinkageError}.
+     * @param nanos
+     *      Time it took to run the linkers.
+     */
+    void linked(Class<?> caller, Operation op, Class<?> owner, String name, MethodType type, Linker winner, long nanos);
+}
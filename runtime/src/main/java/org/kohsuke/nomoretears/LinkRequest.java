@@ -0,0 +1,103 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * One reference to be linked by {@link Linker#link(Lookup, List)}, along with its outcome.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class LinkRequest {
+    private final Operation operation;
+    private final String name;
+    private final MethodType type;
+    private final Class<?> owner;
+
+    private CallSite result;
+    private Throwable failure;
+
+    LinkRequest(Operation operation, String name, MethodType type, Class<?> owner) {
+        this.operation = operation;
+        this.name = name;
+        this.type = type;
+        this.owner = owner;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Name of the method/field to link to.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Type of the invokedynamic call site, which for instance methods and fields includes the receiver
+     * as the first parameter.
+     */
+    public MethodType getType() {
+        return type;
+    }
+
+    /**
+     * Class that the method/field is supposed to belong to.
+     */
+    public Class<?> getOwner() {
+        return owner;
+    }
+
+    /**
+     * Links this reference with the callback of the given linker that corresponds to the operation,
+     * such as {@link Linker#invokeVirtual}.
+     */
+    public CallSite link(Linker linker, Lookup caller) throws ReflectiveOperationException {
+        return operation.link(linker, caller, name, type, owner);
+    }
+
+    /**
+     * Call site that this reference has been linked to, or null if it's not linked yet.
+     */
+    public CallSite getResult() {
+        return result;
+    }
+
+    /**
+     * Sets the call site that this reference links to. Null leaves the reference to the next linker.
+     */
+    public void setResult(CallSite result) {
+        this.result = result;
+    }
+
+    /**
+     * Error that a linker ran into while linking this reference, if any.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Records the error that the linker ran into. The reference is then left for its own call site
+     * to link, which reports the error if it happens again.
+     */
+    public void setFailure(Throwable failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * True if the reference has been linked, or has failed to.
+     */
+    public boolean isDone() {
+        return result!=null || failure!=null;
+    }
+
+    @Override
+    public String toString() {
+        return operation+" "+operation.describe(owner.getName(),name,type);
+    }
+}
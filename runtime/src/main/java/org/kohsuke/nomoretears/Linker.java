@@ -4,7 +4,11 @@ import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Member;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import static java.util.Arrays.asList;
@@ -24,11 +28,14 @@ import static java.util.Arrays.asList;
  * the version of the library used at runtime is different. In such environment, the method/field of the exact
  * same signature might not exist, but a lax "linker" can pick up other methods/fields that superseded the original
  * one. (Such as resolving "X Foo.getX()" to "X2 Foo.getX()" provided that X2 extends from X.)
+ * {@link AdaptingLinker} does this and other similar adaptations out of the box.
  *
  * <p>
- * To register a linker, add an instance to {@link #LINKERS}. This list by default contains the
- * {@linkplain DefaultLinker default linker}, which tries to link to the method/field of the exact signature.
+ * To register a linker, call {@link #register()}, which adds the instance to {@link #LINKERS}. This list by default
+ * contains the {@linkplain DefaultLinker default linker}, which tries to link to the method/field of the exact signature.
  * Normally, you should insert your linkers after this default linker.
+ * Linkers that only concern the classes of a particular class loader can instead be attached to it through
+ * {@link LinkerRegistry#of(ClassLoader)}.
  *
  * <p>
  * Different call back method is provided for each kind of operation that the no-more-tears can defer the linking.
@@ -54,6 +61,10 @@ import static java.util.Arrays.asList;
  * In any of the method, return <tt>null</tt> to let the other linkers attempt at linking. The first one
  * that returns a non-null method will determine the final outcome of the link.
  *
+ * <p>
+ * {@link #invokeVirtual} and {@link #invokeInterface} can return {@link PolymorphicCallSite} to choose
+ * the method to link to based on the actual class of the receiver.
+ *
  * @author Kohsuke Kawaguchi
  */
 public abstract class Linker {
@@ -75,16 +86,92 @@ public abstract class Linker {
 
     public abstract CallSite putStatic(Lookup caller,  String fieldName, Class<?> fieldType, Class<?> owner) throws ReflectiveOperationException;
 
+    /**
+     * Links many references made by the same caller class at once.
+     *
+     * <p>
+     * When {@link LinkerBootstrap#BATCH} is set, the first bootstrap in a class links all the references listed
+     * in its {@link CallSiteTable} through this method, and the call sites executed later pick up the links from
+     * {@link LinkCache}. Each request is only given to the linkers that would have been consulted for it
+     * on its own, in the same order. Call {@link LinkRequest#setResult(CallSite)} on the requests this linker links,
+     * and leave the others to the next linker.
+     *
+     * <p>
+     * The default implementation links the requests one by one through the other methods. Override it to share
+     * the work among them, such as looking up the members of an owner once for all of its references.
+     */
+    public void link(Lookup caller, List<LinkRequest> requests) throws ReflectiveOperationException {
+        for (LinkRequest r : requests) {
+            try {
+                r.setResult(r.link(this, caller));
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                r.setFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Names of the owner classes whose members this linker links.
+     *
+     * <p>
+     * Each entry is either a fully qualified class name like "com.acme.Foo", or a package name followed by ".*"
+     * like "com.acme.*", which covers all the classes in that package and its sub-packages.
+     * Linkers are only consulted for the owners in their scope, and when a linker is registered or unregistered,
+     * only the call sites that refer to the owners in its scope are linked again.
+     *
+     * <p>
+     * The default implementation returns an empty collection, which means every owner is in the scope.
+     * The return value must not change while the linker is registered.
+     */
+    public Collection<String> getScope() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Operations that this linker links. Linkers are only consulted for the operations listed here.
+     *
+     * <p>
+     * The default implementation returns all the operations.
+     * The return value must not change while the linker is registered.
+     */
+    public Set<Operation> getOperations() {
+        return EnumSet.allOf(Operation.class);
+    }
+
+    /**
+     * Checks if the given owner class is in the {@linkplain #getScope() scope} of this linker.
+     */
+    public boolean claims(Class<?> owner) {
+        Collection<String> scope = getScope();
+        if (scope.isEmpty())    return true;
+
+        String n = owner.getName();
+        for (String s : scope) {
+            if (s.endsWith(".*") ? n.startsWith(s.substring(0,s.length()-1)) : n.equals(s))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers this linker to the {@linkplain LinkerRegistry#global() global registry}.
+     * To limit it to the classes of a particular class loader, use {@link LinkerRegistry#of(ClassLoader)} instead.
+     */
     public void register() {
-        LINKERS.add(this);
+        LinkerRegistry.global().register(this);
     }
 
     public void unregister() {
-        LINKERS.remove(this);
+        LinkerRegistry.global().unregister(this);
     }
 
     /**
-     * Registered linkers that get consulted.
+     * Linkers registered to the {@linkplain LinkerRegistry#global() global registry}, which get consulted
+     * for every call site.
+     *
+     * <p>
+     * Links are cached by {@link LinkCache}, so modify this list through {@link #register()} and {@link #unregister()}
+     * for the change to be seen by the call sites that are linked afterward.
      */
     public static List<Linker> LINKERS = new CopyOnWriteArrayList<Linker>(asList(new DefaultLinker()));
 }
\ No newline at end of file
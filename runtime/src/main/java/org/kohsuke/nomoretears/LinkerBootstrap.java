@@ -3,6 +3,12 @@ package org.kohsuke.nomoretears;
 import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Invokedynamic bootstrap methods.
@@ -10,101 +16,226 @@ import java.lang.invoke.MethodType;
  * @author Kohsuke Kawaguchi
  */
 public class LinkerBootstrap {
+    /**
+     * If true, call sites are linked again when a {@link Linker} that claims their owner
+     * is {@linkplain Linker#register() registered} or {@linkplain Linker#unregister() unregistered}.
+     *
+     * <p>
+     * Otherwise call sites stay bound to what the linkers chose when they were first executed.
+     * This only affects the call sites that are linked after the change.
+     */
+    public static boolean RELINKABLE = Boolean.getBoolean(LinkerBootstrap.class.getName()+".relinkable");
+
+    /**
+     * If true, the first bootstrap in a class links all the references that its call sites make, as listed in
+     * its {@link CallSiteTable}, and the rest of the call sites pick up the links from {@link LinkCache}.
+     *
+     * <p>
+     * This saves the work that the references of a class have in common, at the cost of linking
+     * the references of the code that never runs. Doesn't apply to {@link #RELINKABLE} call sites,
+     * nor to the classes that were transformed without the table.
+     */
+    public static boolean BATCH = Boolean.getBoolean(LinkerBootstrap.class.getName()+".batch");
 
     public static CallSite invokeVirtual(Lookup caller, String methodName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> o = resolve(caller, owner);
-        signature = signature.dropParameterTypes(0,1);  // drop 'this'
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.invokeVirtual(caller, methodName, signature, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link invokeVirtual "+owner+"."+methodName+signature);
+        return link(Operation.INVOKE_VIRTUAL, caller, methodName, signature, owner);
     }
 
     public static CallSite invokeStatic(Lookup caller,  String methodName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> o = resolve(caller, owner);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.invokeStatic(caller, methodName, signature, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link invokeStatic "+owner+"."+methodName+signature);
+        return link(Operation.INVOKE_STATIC, caller, methodName, signature, owner);
     }
 
     public static CallSite invokeInterface(Lookup caller,  String methodName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> o = resolve(caller, owner);
-        signature = signature.dropParameterTypes(0,1);  // drop 'this'
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.invokeInterface(caller, methodName, signature, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link invokeInterface "+owner+"."+methodName+signature);
+        return link(Operation.INVOKE_INTERFACE, caller, methodName, signature, owner);
     }
 
     public static CallSite invokeSpecial(Lookup caller,  String methodName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> o = resolve(caller, owner);
-        signature = signature.dropParameterTypes(0,1);  // drop 'this'
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.invokeSpecial(caller, methodName, signature, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link invokeSpecial "+owner+"."+methodName+signature);
+        return link(Operation.INVOKE_SPECIAL, caller, methodName, signature, owner);
     }
 
     public static CallSite invokeConstructor(Lookup caller,  String methodName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> o = resolve(caller, owner);
-        signature = signature.changeReturnType(void.class);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.invokeConstructor(caller, signature, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link invokeConstructor "+owner+"."+methodName+signature);
-
+        return link(Operation.INVOKE_CONSTRUCTOR, caller, methodName, signature, owner);
     }
 
     public static CallSite getField(Lookup caller,  String fieldName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> rt = signature.returnType();
-        Class<?> o = resolve(caller, owner);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.getField(caller, fieldName, rt, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link getField "+owner+"."+fieldName+" "+ rt);
+        return link(Operation.GET_FIELD, caller, fieldName, signature, owner);
     }
 
     public static CallSite putField(Lookup caller,  String fieldName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> rt = signature.parameterType(1);
-        Class<?> o = resolve(caller, owner);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.putField(caller, fieldName, rt, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link puttField "+owner+"."+fieldName+" "+ rt);
+        return link(Operation.PUT_FIELD, caller, fieldName, signature, owner);
     }
 
     public static CallSite getStatic(Lookup caller,  String fieldName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> rt = signature.returnType();
-        Class<?> o = resolve(caller, owner);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.getStatic(caller, fieldName, rt, o);
-            if (c!=null)    return c;
-        }
-        throw new LinkageError("Unable to link getStatic "+owner+"."+fieldName+" "+ rt);
+        return link(Operation.GET_STATIC, caller, fieldName, signature, owner);
     }
 
     public static CallSite putStatic(Lookup caller,  String fieldName, MethodType signature, String owner) throws ReflectiveOperationException {
-        Class<?> rt = signature.parameterType(0);
+        return link(Operation.PUT_STATIC, caller, fieldName, signature, owner);
+    }
+
+    private static CallSite link(Operation op, Lookup caller, String name, MethodType type, String owner) throws ReflectiveOperationException {
         Class<?> o = resolve(caller, owner);
-        for (Linker linker : Linker.LINKERS) {
-            CallSite c = linker.putStatic(caller, fieldName, rt, o);
-            if (c!=null)    return c;
+        CallSite site;
+        if (RELINKABLE) {
+            RelinkableCallSite r = new RelinkableCallSite(op, caller, name, type, o);
+            r.relink();
+            site = r;
+        } else {
+            if (BATCH)
+                LinkBatch.run(caller);
+            site = LinkCache.link(op, caller, name, type, o);
         }
-        throw new LinkageError("Unable to link putStatic "+owner+"."+fieldName+" "+ rt);
+        return SiteProfiler.isInstalled() ? SiteProfiler.wrap(op, caller, name, type, o, site) : site;
     }
 
+    /**
+     * Runs the linkers to link the reference, bypassing {@link LinkCache}.
+     */
+    static CallSite linkNow(Operation op, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+        boolean stats = LinkerStats.isActive();
+        long start = stats ? System.nanoTime() : 0;
+        Linker winner = null;
+        try {
+            Class<?> cc = caller.lookupClass();
+            LinkerIndex index = LinkerRegistry.forClass(cc).getIndex();
+            Linker[] candidates = index.candidates(op, owner);
+
+            if (LinkDecisionCache.isEnabled()) {
+                Linker l = LinkDecisionCache.recall(index, candidates, op, cc, name, type, owner);
+                if (l!=null) {
+                    CallSite c = op.link(l, caller, name, type, owner);
+                    if (c!=null) {
+                        winner = l;
+                        return c;
+                    }
+                    LinkDecisionCache.forget(op, cc, name, type, owner);
+                }
+            }
+
+            for (int i=0; i<candidates.length; i++) {
+                CallSite c = op.link(candidates[i], caller, name, type, owner);
+                if (c!=null) {
+                    winner = candidates[i];
+                    if (i>0 && LinkDecisionCache.isEnabled())
+                        LinkDecisionCache.remember(index, winner, op, cc, name, type, owner);
+                    return c;
+                }
+            }
+            throw new LinkageError("Unable to link "+op+" "+op.describe(owner.getName(),name,type));
+        } finally {
+            if (stats)
+                LinkerStats.record(caller.lookupClass(), op, owner, name, type, winner, System.nanoTime()-start);
+        }
+    }
+
+    /**
+     * Runs the linkers to link the references of the same caller together, bypassing {@link LinkCache}.
+     * The requests that no linker links are left as they are.
+     */
+    static void linkNow(Lookup caller, List<LinkRequest> requests) {
+        boolean stats = LinkerStats.isActive();
+        long start = stats ? System.nanoTime() : 0;
+        Class<?> cc = caller.lookupClass();
+        LinkerIndex index = LinkerRegistry.forClass(cc).getIndex();
+        Linker[][] candidates = new Linker[requests.size()][];
+        Linker[] winners = new Linker[requests.size()];
+
+        for (int i=0; i<candidates.length; i++) {
+            LinkRequest r = requests.get(i);
+            candidates[i] = index.candidates(r.getOperation(), r.getOwner());
+
+            if (LinkDecisionCache.isEnabled()) {
+                Linker l = LinkDecisionCache.recall(index, candidates[i], r.getOperation(), cc, r.getName(), r.getType(), r.getOwner());
+                if (l!=null) {
+                    linkAll(l, caller, Collections.singletonList(r));
+                    if (r.getResult()!=null)
+                        winners[i] = l;
+                    else
+                    if (!r.isDone())
+                        LinkDecisionCache.forget(r.getOperation(), cc, r.getName(), r.getType(), r.getOwner());
+                }
+            }
+        }
+
+        // going through the linkers in the order of the index tries the candidates of each request in their order
+        for (Linker l : index.all()) {
+            List<LinkRequest> batch = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            for (int i=0; i<candidates.length; i++) {
+                if (!requests.get(i).isDone() && contains(candidates[i], l)) {
+                    batch.add(requests.get(i));
+                    positions.add(i);
+                }
+            }
+            if (batch.isEmpty())
+                continue;
+
+            linkAll(l, caller, batch);
+            for (int i : positions) {
+                LinkRequest r = requests.get(i);
+                if (r.getResult()!=null) {
+                    winners[i] = l;
+                    if (l!=candidates[i][0] && LinkDecisionCache.isEnabled())
+                        LinkDecisionCache.remember(index, l, r.getOperation(), cc, r.getName(), r.getType(), r.getOwner());
+                }
+            }
+        }
+
+        if (stats) {
+            long nanos = (System.nanoTime()-start)/Math.max(1,requests.size());
+            for (int i=0; i<winners.length; i++) {
+                LinkRequest r = requests.get(i);
+                if (winners[i]!=null)
+                    LinkerStats.record(cc, r.getOperation(), r.getOwner(), r.getName(), r.getType(), winners[i], nanos);
+            }
+        }
+    }
+
+    /**
+     * Lets the linker link the requests, and fails the ones it leaves unfinished if it throws.
+     */
+    private static void linkAll(Linker l, Lookup caller, List<LinkRequest> requests) {
+        try {
+            l.link(caller, requests);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            for (LinkRequest r : requests) {
+                if (!r.isDone())
+                    r.setFailure(e);
+            }
+        }
+    }
+
+    private static boolean contains(Linker[] linkers, Linker l) {
+        for (Linker x : linkers)
+            if (x==l)
+                return true;
+        return false;
+    }
+
+    /**
+     * For each class loader, owner classes it has resolved. Many call sites refer to the same owner,
+     * and going through {@link ClassLoader#loadClass(String)} each time means taking its locks.
+     * Values are weak so as not to keep classes of other loaders alive.
+     */
+    private static final ClassLoaderLocal<ConcurrentMap<String,WeakReference<Class<?>>>> OWNERS = new ClassLoaderLocal<ConcurrentMap<String,WeakReference<Class<?>>>>() {
+        @Override
+        protected ConcurrentMap<String,WeakReference<Class<?>>> create(ClassLoader cl) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     /**
      * Resolves the class name in the context of the caller.
      */
-    private static Class<?> resolve(Lookup caller, String owner) throws ClassNotFoundException {
-        return caller.lookupClass().getClassLoader().loadClass(owner);
+    static Class<?> resolve(Lookup caller, String owner) throws ClassNotFoundException {
+        Class<?> c = caller.lookupClass();
+        ConcurrentMap<String,WeakReference<Class<?>>> owners = OWNERS.get(c);
+        WeakReference<Class<?>> ref = owners.get(owner);
+        Class<?> o = ref!=null ? ref.get() : null;
+        if (o==null) {
+            o = c.getClassLoader().loadClass(owner);
+            owners.put(owner, new WeakReference<Class<?>>(o));
+        }
+        return o;
     }
 }
@@ -0,0 +1,195 @@
+package org.kohsuke.nomoretears;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable index of the linkers visible from a {@link LinkerRegistry} by their {@linkplain Linker#getScope() scope}
+ * and {@linkplain Linker#getOperations() operations}, so that a bootstrap only tries the linkers
+ * that can link its reference.
+ *
+ * <p>
+ * Package scopes are kept in a trie of package name segments, and the linkers found for an owner
+ * are kept in their registration order.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class LinkerIndex {
+    private static final class Node {
+        final Map<String,Node> children = new HashMap<>();
+        /**
+         * Positions of the linkers whose scope is this package and its sub-packages.
+         */
+        final List<Integer> linkers = new ArrayList<>();
+    }
+
+    private final Linker[] all;
+
+    /**
+     * {@link Linker#getOperations()} of each linker as bits of {@link Operation#ordinal()}, computed upfront,
+     * as the linkers might be transformed code.
+     */
+    private final int[] operations;
+    private final int version;
+
+    /**
+     * Identifies the linkers in this index across JVMs, by their class names and order.
+     */
+    final int fingerprint;
+
+    /**
+     * Root of the trie, which holds the linkers that have no scope.
+     */
+    private final Node root = new Node();
+
+    /**
+     * Positions of the linkers that name the class in their scope, keyed by the class name.
+     */
+    private final Map<String,List<Integer>> classes = new HashMap<>();
+
+    /**
+     * Candidate linkers computed so far, keyed by the owner class name and then indexed by {@link Operation#ordinal()}.
+     */
+    private final ConcurrentMap<String,Linker[][]> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * False if this index treats every linker as if it had no scope and handled all the operations.
+     */
+    private final boolean scoped;
+
+    private LinkerIndex(Collection<Linker> linkers, int version, boolean scoped) {
+        this.all = linkers.toArray(new Linker[linkers.size()]);
+        this.version = version;
+
+        StringBuilder names = new StringBuilder();
+        for (Linker l : all)
+            names.append(l.getClass().getName()).append(',');
+        this.fingerprint = names.toString().hashCode();
+        this.scoped = scoped;
+        this.operations = new int[all.length];
+
+        for (int i=0; i<all.length; i++) {
+            for (Operation op : scoped ? all[i].getOperations() : EnumSet.allOf(Operation.class))
+                operations[i] |= 1<<op.ordinal();
+            Collection<String> scope = scoped ? all[i].getScope() : Collections.<String>emptySet();
+            if (scope.isEmpty())
+                root.linkers.add(i);
+            for (String s : scope) {
+                if (s.endsWith(".*")) {
+                    Node n = root;
+                    for (String segment : s.substring(0,s.length()-2).split("\\.")) {
+                        Node c = n.children.get(segment);
+                        if (c==null)
+                            n.children.put(segment, c=new Node());
+                        n = c;
+                    }
+                    n.linkers.add(i);
+                } else {
+                    List<Integer> l = classes.get(s);
+                    if (l==null)
+                        classes.put(s, l=new ArrayList<>());
+                    l.add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets all the linkers in this index, in the order they are tried.
+     */
+    Linker[] all() {
+        return all;
+    }
+
+    /**
+     * Gets the linkers to try, in order, to link the given operation on a member of the given owner.
+     */
+    Linker[] candidates(Operation op, Class<?> owner) {
+        String name = owner.getName();
+        Linker[][] c = candidates.get(name);
+        if (c==null)
+            candidates.put(name, c=compute(name));
+        return c[op.ordinal()];
+    }
+
+    private Linker[][] compute(String owner) {
+        boolean[] matched = new boolean[all.length];
+
+        Node n = root;
+        mark(n.linkers, matched);
+        String[] segments = owner.split("\\.");
+        for (int i=0; i<segments.length-1 && n!=null; i++) {
+            n = n.children.get(segments[i]);
+            if (n!=null)
+                mark(n.linkers, matched);
+        }
+        List<Integer> l = classes.get(owner);
+        if (l!=null)
+            mark(l, matched);
+
+        Operation[] ops = Operation.values();
+        Linker[][] r = new Linker[ops.length][];
+        for (Operation op : ops) {
+            List<Linker> linkers = new ArrayList<>();
+            for (int i=0; i<all.length; i++) {
+                if (matched[i] && (operations[i]&1<<op.ordinal())!=0)
+                    linkers.add(all[i]);
+            }
+            r[op.ordinal()] = linkers.toArray(new Linker[linkers.size()]);
+        }
+        return r;
+    }
+
+    private static void mark(List<Integer> positions, boolean[] matched) {
+        for (int i : positions)
+            matched[i] = true;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkerIndex"+Arrays.asList(all);
+    }
+
+    /**
+     * Checks if the linkers have changed since this index was built.
+     *
+     * @param version
+     *      Current version of the linkers, as given to {@link #build(Collection, int)}.
+     */
+    boolean isStale(int version) {
+        return !scoped || this.version!=version;
+    }
+
+    /**
+     * Set while the current thread is building an index.
+     */
+    private static final ThreadLocal<Boolean> BUILDING = new ThreadLocal<>();
+
+    /**
+     * Builds the index of the given linkers.
+     *
+     * @param version
+     *      Version of the linkers, obtained before they are.
+     */
+    static LinkerIndex build(Collection<Linker> linkers, int version) {
+        if (BUILDING.get()!=null) {
+            // linkers asked about their scope are running transformed code that needs linking.
+            // link them without looking at the scopes to avoid infinite recursion, and don't let this index be reused.
+            return new LinkerIndex(linkers, 0, false);
+        }
+        BUILDING.set(true);
+        try {
+            return new LinkerIndex(linkers, version, true);
+        } finally {
+            BUILDING.remove();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of {@link Linker}s attached to a class loader.
+ *
+ * <p>
+ * A call site is linked by the linkers registered to the class loader of its class and to the ancestors of
+ * that class loader, plus the {@linkplain #global() global} linkers, in the order of the global linkers first
+ * and the ones of the class loader last. In a container that gives each module its own class loader, this lets
+ * the linkers of one module stay out of the way of others.
+ *
+ * <p>
+ * A registry keeps its linkers reachable, so unregister the linkers loaded by a class loader before discarding
+ * that class loader.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class LinkerRegistry {
+    /**
+     * Registry of the parent class loader, or null if this is the global registry.
+     */
+    private final LinkerRegistry parent;
+
+    /**
+     * Linkers registered to this registry, or null for the global registry, which uses {@link Linker#LINKERS}.
+     */
+    private final List<Linker> linkers;
+
+    private volatile LinkerIndex index;
+
+    /**
+     * Incremented whenever linkers are registered to or unregistered from this registry.
+     */
+    private final AtomicInteger version = new AtomicInteger();
+
+    private final OwnerSwitchPoints switchPoints = new OwnerSwitchPoints();
+
+    private LinkerRegistry(LinkerRegistry parent, List<Linker> linkers) {
+        this.parent = parent;
+        this.linkers = linkers;
+    }
+
+    public void register(Linker linker) {
+        own().add(linker);
+        changed(linker);
+    }
+
+    /**
+     * Registers the linker ahead of the ones already registered to this registry, such as {@link DefaultLinker}
+     * in the global registry, so that it gets to link the references that they would link, too.
+     */
+    public void registerFirst(Linker linker) {
+        own().add(0, linker);
+        changed(linker);
+    }
+
+    public void unregister(Linker linker) {
+        own().remove(linker);
+        changed(linker);
+    }
+
+    private void changed(Linker linker) {
+        version.incrementAndGet();
+        for (LinkerRegistry r : descendants())
+            r.switchPoints.invalidate(linker);
+    }
+
+    /**
+     * This registry and the registries of the class loaders below it, which see its linkers.
+     */
+    private List<LinkerRegistry> descendants() {
+        List<LinkerRegistry> r = new ArrayList<>();
+        r.add(this);
+        synchronized (REGISTRIES) {
+            for (LinkerRegistry d : REGISTRIES.values()) {
+                for (LinkerRegistry p=d.parent; p!=null; p=p.parent) {
+                    if (p==this) {
+                        r.add(d);
+                        break;
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Changes whenever the linkers of this registry or its ancestors change.
+     */
+    private int stamp() {
+        return parent!=null ? parent.stamp()+version.get() : version.get();
+    }
+
+    /**
+     * Gets the switch point that guards the links to the members of the given owner made for the classes
+     * of this registry.
+     */
+    SwitchPoint switchPoint(Class<?> owner) {
+        return switchPoints.of(owner);
+    }
+
+    /**
+     * Linkers registered to this registry, excluding those inherited from the parent.
+     */
+    public List<Linker> getLinkers() {
+        return Collections.unmodifiableList(own());
+    }
+
+    /**
+     * Linkers that link call sites in the classes of this class loader, in the order they get consulted.
+     */
+    public List<Linker> getEffectiveLinkers() {
+        List<Linker> r = parent!=null ? parent.getEffectiveLinkers() : new ArrayList<Linker>();
+        r.addAll(own());
+        return r;
+    }
+
+    private List<Linker> own() {
+        return parent!=null ? linkers : Linker.LINKERS;
+    }
+
+    LinkerIndex getIndex() {
+        LinkerIndex i = index;
+        int stamp = stamp();
+        if (i==null || i.isStale(stamp))
+            index = i = LinkerIndex.build(getEffectiveLinkers(), stamp);
+        return i;
+    }
+
+    private static final LinkerRegistry GLOBAL = new LinkerRegistry(null, null);
+
+    private static final Map<ClassLoader,LinkerRegistry> REGISTRIES = new WeakHashMap<>();
+
+    private static final ClassLoaderLocal<LinkerRegistry> BY_CLASS = new ClassLoaderLocal<LinkerRegistry>() {
+        @Override
+        protected LinkerRegistry create(ClassLoader cl) {
+            return of(cl);
+        }
+    };
+
+    /**
+     * Registry of the linkers that are visible from every class loader, which is what
+     * {@link Linker#register()} registers to. Its linkers are {@link Linker#LINKERS}.
+     */
+    public static LinkerRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Gets the registry attached to the given class loader, creating it if necessary.
+     *
+     * @param cl
+     *      null to get the {@linkplain #global() global} registry.
+     */
+    public static LinkerRegistry of(ClassLoader cl) {
+        if (cl==null)   return GLOBAL;
+        LinkerRegistry parent = of(cl.getParent());
+        synchronized (REGISTRIES) {
+            LinkerRegistry r = REGISTRIES.get(cl);
+            if (r==null)
+                REGISTRIES.put(cl, r=new LinkerRegistry(parent, new CopyOnWriteArrayList<Linker>()));
+            return r;
+        }
+    }
+
+    /**
+     * Gets the registry that links call sites in the given class.
+     */
+    static LinkerRegistry forClass(Class<?> c) {
+        return BY_CLASS.get(c);
+    }
+}
@@ -0,0 +1,207 @@
+package org.kohsuke.nomoretears;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instrumentation of the linking that {@link LinkerBootstrap} does.
+ *
+ * <p>
+ * When enabled, this keeps counters and latency histograms per operation and per linker, and exposes them as
+ * an MXBean named {@value #OBJECT_NAME}. It's enabled by setting the system property
+ * <tt>org.kohsuke.nomoretears.LinkerStats.enabled</tt> to true, or by calling {@link #setEnabled(boolean)}.
+ * {@link LinkListener}s get an event for each reference that the linkers are run for. With <tt>no-more-tears-jfr</tt>
+ * on the classpath, each of them is also recorded as a JFR event while a flight recording is running.
+ *
+ * <p>
+ * When it's disabled and there's no listener, the bootstraps only pay for reading a volatile field.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class LinkerStats implements LinkerStatsMXBean {
+    public static final String OBJECT_NAME = "org.kohsuke.nomoretears:type=LinkerStats";
+
+    private static final LinkerStats INSTANCE = new LinkerStats();
+
+    private volatile boolean enabled;
+
+    /**
+     * True if either {@link #enabled} or there are listeners.
+     */
+    private static volatile boolean active;
+
+    private static final List<LinkListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final StripedHistogram[] byOperation = new StripedHistogram[Operation.values().length];
+    private final ConcurrentMap<String,StripedHistogram> byLinker = new ConcurrentHashMap<>();
+
+    private LinkerStats() {
+        for (int i=0; i<byOperation.length; i++)
+            byOperation[i] = new StripedHistogram();
+    }
+
+    public static LinkerStats get() {
+        return INSTANCE;
+    }
+
+    public static void addListener(LinkListener l) {
+        LISTENERS.add(l);
+        INSTANCE.update();
+    }
+
+    public static void removeListener(LinkListener l) {
+        LISTENERS.remove(l);
+        INSTANCE.update();
+    }
+
+    static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Records the outcome of running the linkers.
+     */
+    static void record(Class<?> caller, Operation op, Class<?> owner, String name, MethodType type, Linker winner, long nanos) {
+        LinkerStats s = INSTANCE;
+        if (s.enabled) {
+            s.byOperation[op.ordinal()].record(nanos);
+            if (winner==null) {
+                s.failures.incrementAndGet();
+            } else {
+                if (!(winner instanceof DefaultLinker))
+                    s.fallbacks.incrementAndGet();
+                String n = winner.getClass().getName();
+                StripedHistogram h = s.byLinker.get(n);
+                if (h==null) {
+                    StripedHistogram old = s.byLinker.putIfAbsent(n, h=new StripedHistogram());
+                    if (old!=null)  h = old;
+                }
+                h.record(nanos);
+            }
+        }
+        for (LinkListener l : LISTENERS) {
+            try {
+                l.linked(caller, op, owner, name, type, winner, nanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "LinkListener "+l+" failed", e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            try {
+                ObjectName on = new ObjectName(OBJECT_NAME);
+                if (!ManagementFactory.getPlatformMBeanServer().isRegistered(on))
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Failed to register "+OBJECT_NAME, e);
+            }
+        }
+        this.enabled = enabled;
+        update();
+    }
+
+    private void update() {
+        active = enabled || !LISTENERS.isEmpty();
+    }
+
+    public long getLinkCount() {
+        long r = 0;
+        for (StripedHistogram h : byOperation)
+            r += h.getCount();
+        return r;
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    public long getLinkTime() {
+        long r = 0;
+        for (StripedHistogram h : byOperation)
+            r += h.getTotalNanos();
+        return r;
+    }
+
+    public long getCacheHitCount() {
+        return LinkCache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return LinkCache.getMissCount();
+    }
+
+    public Map<String,Long> getLinkCountByOperation() {
+        Map<String,Long> r = new TreeMap<>();
+        for (Operation op : Operation.values())
+            r.put(op.toString(), byOperation[op.ordinal()].getCount());
+        return r;
+    }
+
+    public Map<String,long[]> getLatencyByOperation() {
+        Map<String,long[]> r = new TreeMap<>();
+        for (Operation op : Operation.values())
+            r.put(op.toString(), byOperation[op.ordinal()].getBuckets());
+        return r;
+    }
+
+    public Map<String,Long> getLinkCountByLinker() {
+        Map<String,Long> r = new TreeMap<>();
+        for (Map.Entry<String,StripedHistogram> e : byLinker.entrySet())
+            r.put(e.getKey(), e.getValue().getCount());
+        return r;
+    }
+
+    public Map<String,long[]> getLatencyByLinker() {
+        Map<String,long[]> r = new TreeMap<>();
+        for (Map.Entry<String,StripedHistogram> e : byLinker.entrySet())
+            r.put(e.getKey(), e.getValue().getBuckets());
+        return r;
+    }
+
+    public void reset() {
+        for (StripedHistogram h : byOperation)
+            h.reset();
+        byLinker.clear();
+        failures.set(0);
+        fallbacks.set(0);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LinkerStats.class.getName());
+
+    static {
+        if (Boolean.getBoolean(LinkerStats.class.getName()+".enabled"))
+            INSTANCE.setEnabled(true);
+
+        // no-more-tears-jfr, which takes Java 11 and a JVM with JFR
+        try {
+            Class.forName("org.kohsuke.nomoretears.FlightRecorderBridge").getMethod("install").invoke(null);
+        } catch (ClassNotFoundException e) {
+            // not on the classpath
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.log(Level.FINE, "JFR events for the links are unavailable", e);
+        }
+    }
+}
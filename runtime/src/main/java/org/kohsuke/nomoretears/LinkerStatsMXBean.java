@@ -0,0 +1,62 @@
+package org.kohsuke.nomoretears;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link LinkerStats}.
+ *
+ * <p>
+ * Latency histograms are arrays whose element i counts the links that took [2^(i-1),2^i) microseconds,
+ * except the first element, which counts those under a microsecond, and the last element, which counts
+ * everything longer than that.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public interface LinkerStatsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Number of references that the linkers were run for.
+     */
+    long getLinkCount();
+
+    /**
+     * Number of references that no linker could link, which resulted in {@link LinkageError}.
+     */
+    long getFailureCount();
+
+    /**
+     * Number of references that {@link DefaultLinker} didn't link and another linker did.
+     */
+    long getFallbackCount();
+
+    /**
+     * Total time spent running the linkers, in nanoseconds.
+     */
+    long getLinkTime();
+
+    /**
+     * @see LinkCache#getHitCount()
+     */
+    long getCacheHitCount();
+
+    /**
+     * @see LinkCache#getMissCount()
+     */
+    long getCacheMissCount();
+
+    Map<String,Long> getLinkCountByOperation();
+
+    Map<String,long[]> getLatencyByOperation();
+
+    /**
+     * Number of references each linker has linked, keyed by the class name of the linker.
+     */
+    Map<String,Long> getLinkCountByLinker();
+
+    Map<String,long[]> getLatencyByLinker();
+
+    void reset();
+}
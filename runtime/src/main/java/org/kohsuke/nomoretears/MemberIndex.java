@@ -0,0 +1,249 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Members declared in a class, so that {@link DefaultLinker} can tell if a lookup would fail
+ * without making it and having it throw an exception.
+ *
+ * <p>
+ * Lookups through {@link java.lang.invoke.MethodHandles.Lookup} report a missing member by throwing
+ * {@link ReflectiveOperationException}, which is expensive when many references don't link exactly.
+ * This index only ever answers "no" when the member is certainly not there. Access checks are left
+ * to the actual lookup.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class MemberIndex {
+    private static final int STATIC = 1, INSTANCE = 2, FINAL_STATIC = 4, RESTRICTED = 8;
+
+    /**
+     * Index of the class itself, without its supertypes.
+     */
+    private static final ClassValue<MemberIndex> INDICES = new ClassValue<MemberIndex>() {
+        @Override
+        protected MemberIndex computeValue(Class<?> type) {
+            return new MemberIndex(type);
+        }
+    };
+
+    /**
+     * Stands for a class whose fields couldn't be listed, in {@link #resolveField(Class, Member)}.
+     */
+    private static final Class<?> UNKNOWN = Void.class;
+
+    private final Class<?> type;
+
+    /**
+     * From name and type of methods to whether they are static or not.
+     * Null if the members couldn't be listed, for example because a class in their signatures is missing.
+     */
+    private final Map<Member,Integer> methods;
+    private final Map<Member,Integer> fields;
+    private final Set<MethodType> constructors;
+    /**
+     * Constructors that are private or protected.
+     */
+    private final Set<MethodType> restrictedConstructors;
+
+    private MemberIndex(Class<?> type) {
+        this.type = type;
+
+        Map<Member,Integer> methods = new HashMap<>();
+        Map<Member,Integer> fields = new HashMap<>();
+        Set<MethodType> constructors = new HashSet<>();
+        Set<MethodType> restrictedConstructors = new HashSet<>();
+        try {
+            for (Method m : type.getDeclaredMethods())
+                add(methods, new Member(m.getName(), MethodType.methodType(m.getReturnType(), m.getParameterTypes())), m.getModifiers());
+            for (Field f : type.getDeclaredFields())
+                add(fields, new Member(f.getName(), MethodType.methodType(f.getType())), f.getModifiers());
+            for (Constructor<?> c : type.getDeclaredConstructors()) {
+                MethodType t = MethodType.methodType(void.class, c.getParameterTypes());
+                constructors.add(t);
+                if (isRestricted(c.getModifiers()))
+                    restrictedConstructors.add(t);
+            }
+        } catch (LinkageError | SecurityException e) {
+            methods = fields = null;
+            constructors = restrictedConstructors = null;
+        }
+        this.methods = methods;
+        this.fields = fields;
+        this.constructors = constructors;
+        this.restrictedConstructors = restrictedConstructors;
+    }
+
+    private static void add(Map<Member,Integer> members, Member m, int modifiers) {
+        Integer v = members.get(m);
+        int flags = Modifier.isStatic(modifiers) ? STATIC : INSTANCE;
+        if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers))
+            flags |= FINAL_STATIC;
+        if (isRestricted(modifiers))
+            flags |= RESTRICTED;
+        members.put(m, (v==null ? 0 : v) | flags);
+    }
+
+    /**
+     * Does the access to the member depend on the class of the caller, and not just on its package?
+     */
+    private static boolean isRestricted(int modifiers) {
+        return (modifiers&(Modifier.PRIVATE|Modifier.PROTECTED))!=0;
+    }
+
+    /**
+     * Can there be a method of the given name and type, either static or not, in the class or its supertypes?
+     */
+    static boolean hasMethod(Class<?> owner, String name, MethodType type, boolean isStatic) {
+        if (!isStatic && isSignaturePolymorphic(owner))
+            return true;    // signature polymorphic methods match any type
+        Member m = new Member(name, type);
+        int mask = isStatic ? STATIC : INSTANCE;
+        if (find(owner, m, mask, true))
+            return true;
+        // interfaces have methods of Object as members
+        return !isStatic && owner.isInterface() && find(Object.class, m, mask, true);
+    }
+
+    /**
+     * Does the class have signature polymorphic methods? Those are in {@link MethodHandle} and VarHandle,
+     * which is matched by name, as it's only there since Java 9.
+     */
+    private static boolean isSignaturePolymorphic(Class<?> owner) {
+        for (Class<?> c=owner; c!=null; c=c.getSuperclass()) {
+            if (c==MethodHandle.class || c.getName().equals("java.lang.invoke.VarHandle"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Can there be a field of the given name and type, either static or not, in the class or its supertypes?
+     */
+    static boolean hasField(Class<?> owner, String name, Class<?> type, boolean isStatic) {
+        return find(owner, new Member(name, MethodType.methodType(type)), isStatic ? STATIC : INSTANCE, false);
+    }
+
+    /**
+     * Gets the class that declares the field that a reference to the owner resolves to, if that field is static final.
+     *
+     * @return
+     *      null if the field isn't static final, or if that can't be told.
+     */
+    static Class<?> getFinalStaticDeclarer(Class<?> owner, String name, Class<?> type) {
+        Member m = new Member(name, MethodType.methodType(type));
+        Class<?> c = resolveField(owner, m);
+        if (c==null || c==UNKNOWN)  return null;
+        return (INDICES.get(c).fields.get(m)&FINAL_STATIC)!=0 ? c : null;
+    }
+
+    /**
+     * Finds the class that declares the field in the order the JVM resolves field references:
+     * the class itself, its superinterfaces, and then its superclass.
+     *
+     * @return
+     *      null if there's no such field, or {@link #UNKNOWN} if the search ran into a class whose fields are unknown.
+     */
+    private static Class<?> resolveField(Class<?> c, Member m) {
+        for (; c!=null; c=c.getSuperclass()) {
+            Map<Member,Integer> fields = INDICES.get(c).fields;
+            if (fields==null)
+                return UNKNOWN; // the search can't go past this class
+            if (fields.containsKey(m))
+                return c;
+            for (Class<?> i : c.getInterfaces()) {
+                Class<?> d = resolveField(i, m);
+                if (d!=null)
+                    return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Can there be a constructor of the given type, whose return type is void?
+     */
+    static boolean hasConstructor(Class<?> owner, MethodType type) {
+        Set<MethodType> c = INDICES.get(owner).constructors;
+        return c==null || c.contains(type);
+    }
+
+    /**
+     * Can a method of the given name and type in the class or its supertypes be private or protected?
+     * The access to those depends on the class of the caller, and not just on its package.
+     */
+    static boolean isRestrictedMethod(Class<?> owner, String name, MethodType type) {
+        Member m = new Member(name, type);
+        return find(owner, m, RESTRICTED, true) || owner.isInterface() && find(Object.class, m, RESTRICTED, true);
+    }
+
+    /**
+     * Can a field of the given name and type in the class or its supertypes be private or protected?
+     */
+    static boolean isRestrictedField(Class<?> owner, String name, Class<?> type) {
+        return find(owner, new Member(name, MethodType.methodType(type)), RESTRICTED, false);
+    }
+
+    /**
+     * Can the constructor of the given type, whose return type is void, be private or protected?
+     */
+    static boolean isRestrictedConstructor(Class<?> owner, MethodType type) {
+        Set<MethodType> c = INDICES.get(owner).restrictedConstructors;
+        return c==null || c.contains(type);
+    }
+
+    private static boolean find(Class<?> c, Member m, int mask, boolean method) {
+        for (; c!=null; c=c.getSuperclass()) {
+            if (INDICES.get(c).has(m, mask, method))
+                return true;
+            for (Class<?> i : c.getInterfaces()) {
+                if (find(i, m, mask, method))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean has(Member m, int mask, boolean method) {
+        Map<Member,Integer> members = method ? methods : fields;
+        if (members==null)  return true;   // don't know
+        Integer v = members.get(m);
+        return v!=null && (v&mask)!=0;
+    }
+
+    @Override
+    public String toString() {
+        return "MemberIndex["+type.getName()+"]";
+    }
+
+    private static final class Member {
+        private final String name;
+        private final MethodType type;
+
+        Member(String name, MethodType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Member))     return false;
+            Member that = (Member) o;
+            return name.equals(that.name) && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode()*31 + type.hashCode();
+        }
+    }
+}
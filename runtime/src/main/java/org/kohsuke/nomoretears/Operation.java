@@ -0,0 +1,163 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+
+/**
+ * Kind of operations whose linking is deferred to runtime.
+ *
+ * <p>
+ * Each constant corresponds to a bootstrap method in {@link LinkerBootstrap} and a callback in {@link Linker}.
+ * In the methods of this class, the type is always that of the invokedynamic call site, which for instance
+ * methods and fields includes the receiver as the first parameter.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public enum Operation {
+    INVOKE_VIRTUAL("invokeVirtual") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.invokeVirtual(caller, name, dropThis(type), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+dropThis(type);
+        }
+    },
+    INVOKE_STATIC("invokeStatic") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.invokeStatic(caller, name, type, owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+type;
+        }
+    },
+    INVOKE_INTERFACE("invokeInterface") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.invokeInterface(caller, name, dropThis(type), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+dropThis(type);
+        }
+    },
+    INVOKE_SPECIAL("invokeSpecial") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.invokeSpecial(caller, name, dropThis(type), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+dropThis(type);
+        }
+    },
+    INVOKE_CONSTRUCTOR("invokeConstructor") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.invokeConstructor(caller, type.changeReturnType(void.class), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+type.changeReturnType(void.class);
+        }
+    },
+    GET_FIELD("getField") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.getField(caller, name, type.returnType(), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+" "+type.returnType();
+        }
+    },
+    PUT_FIELD("putField") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.putField(caller, name, type.parameterType(1), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+" "+type.parameterType(1);
+        }
+    },
+    GET_STATIC("getStatic") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.getStatic(caller, name, type.returnType(), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+" "+type.returnType();
+        }
+    },
+    PUT_STATIC("putStatic") {
+        @Override
+        CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException {
+            return linker.putStatic(caller, name, type.parameterType(0), owner);
+        }
+
+        @Override
+        String describe(String owner, String name, MethodType type) {
+            return owner+"."+name+" "+type.parameterType(0);
+        }
+    };
+
+    private final String bootstrapName;
+
+    Operation(String bootstrapName) {
+        this.bootstrapName = bootstrapName;
+    }
+
+    /**
+     * Name of the bootstrap method in {@link LinkerBootstrap} for this operation, such as "invokeVirtual".
+     */
+    public String getBootstrapName() {
+        return bootstrapName;
+    }
+
+    /**
+     * Asks the given linker to link this operation.
+     */
+    abstract CallSite link(Linker linker, Lookup caller, String name, MethodType type, Class<?> owner) throws ReflectiveOperationException;
+
+    /**
+     * Describes the referenced member for error messages.
+     */
+    abstract String describe(String owner, String name, MethodType type);
+
+    @Override
+    public String toString() {
+        return bootstrapName;
+    }
+
+    /**
+     * Gets the operation from the name of its bootstrap method.
+     *
+     * @throws IllegalArgumentException
+     *      if there's no such operation.
+     */
+    public static Operation fromBootstrapName(String name) {
+        for (Operation op : values()) {
+            if (op.bootstrapName.equals(name))
+                return op;
+        }
+        throw new IllegalArgumentException("No such operation: "+name);
+    }
+
+    private static MethodType dropThis(MethodType type) {
+        return type.dropParameterTypes(0,1);
+    }
+}
@@ -0,0 +1,64 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks, for each owner class, the {@link SwitchPoint} that guards the links to its members
+ * made for the classes of one {@link LinkerRegistry}.
+ *
+ * <p>
+ * When a {@link Linker} is registered or unregistered, the switch points of the owners it claims
+ * get invalidated, and the links made before that are discarded. Owners the linker doesn't claim
+ * keep their links, and so do the classes of the registries that can't see the linker.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class OwnerSwitchPoints {
+    private final ClassValue<AtomicReference<SwitchPoint>> switchPoints = new ClassValue<AtomicReference<SwitchPoint>>() {
+        @Override
+        protected AtomicReference<SwitchPoint> computeValue(Class<?> owner) {
+            synchronized (owners) {
+                owners.add(owner);
+            }
+            return new AtomicReference<>(new SwitchPoint());
+        }
+    };
+
+    /**
+     * All the owners that have switch points, so that they can be found from a {@link Linker}.
+     */
+    private final Set<Class<?>> owners = Collections.newSetFromMap(new WeakHashMap<Class<?>,Boolean>());
+
+    /**
+     * Gets the switch point that's currently valid for the given owner.
+     *
+     * Obtain this before running the linkers, so that a concurrent change in linkers invalidates the result.
+     */
+    SwitchPoint of(Class<?> owner) {
+        return switchPoints.get(owner).get();
+    }
+
+    /**
+     * Invalidates the links to the owners that the given linker claims.
+     */
+    void invalidate(Linker linker) {
+        Class<?>[] owners;
+        synchronized (this.owners) {
+            // the linker might be transformed code itself, so don't call it while holding the lock
+            owners = this.owners.toArray(new Class<?>[this.owners.size()]);
+        }
+
+        List<SwitchPoint> invalidated = new ArrayList<>();
+        for (Class<?> owner : owners) {
+            if (linker.claims(owner))
+                invalidated.add(switchPoints.get(owner).getAndSet(new SwitchPoint()));
+        }
+        SwitchPoint.invalidateAll(invalidated.toArray(new SwitchPoint[invalidated.size()]));
+    }
+}
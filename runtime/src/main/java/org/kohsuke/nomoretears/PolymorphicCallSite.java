@@ -0,0 +1,151 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Call site for {@link Linker#invokeVirtual} and {@link Linker#invokeInterface} that links
+ * based on the actual class of the receiver, not just the owner class.
+ *
+ * <p>
+ * {@link Resolver} is asked to pick the method for each receiver class as it's seen for the first time.
+ * The call site keeps a chain of tests on the receiver class that dispatches to the method picked
+ * for it (so-called polymorphic inline cache), and once the number of receiver classes exceeds
+ * the limit, it switches to a table lookup keyed by the receiver class.
+ *
+ * <p>
+ * This is useful for a linker that needs to link differently depending on the implementation, for
+ * example when one subclass still has the old signature and another only has the new one.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class PolymorphicCallSite extends MutableCallSite {
+    /**
+     * Picks the method to invoke for a receiver class.
+     */
+    public interface Resolver {
+        /**
+         * @return
+         *      Method handle that takes the receiver as the first parameter, followed by the parameters of the
+         *      signature given to the linker. Its type needs to be convertible to that of the call site
+         *      by {@link MethodHandle#asType(MethodType)}. Never null.
+         * @throws ReflectiveOperationException
+         *      if there's no method to invoke for this receiver class. This gets reported as {@link LinkageError}
+         *      to the caller.
+         */
+        MethodHandle resolve(Class<?> receiverClass) throws ReflectiveOperationException;
+    }
+
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    private final Resolver resolver;
+    private final int maxDepth;
+    private final MethodHandle fallback;
+
+    /**
+     * Methods resolved so far for each receiver class, which the guard chain tests.
+     */
+    private final Map<Class<?>,MethodHandle> resolved = new HashMap<>();
+
+    /**
+     * Set once the call site turns megamorphic.
+     */
+    private volatile ClassValue<MethodHandle> table;
+
+    /**
+     * @param owner
+     *      The owner class given to the linker.
+     * @param signature
+     *      The signature given to the linker, which doesn't include the receiver.
+     */
+    public PolymorphicCallSite(Class<?> owner, MethodType signature, Resolver resolver) {
+        this(owner, signature, resolver, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxDepth
+     *      Maximum number of receiver classes to test before switching to the table lookup.
+     */
+    public PolymorphicCallSite(Class<?> owner, MethodType signature, Resolver resolver, int maxDepth) {
+        super(signature.insertParameterTypes(0,owner));
+        this.resolver = resolver;
+        this.maxDepth = maxDepth;
+        this.fallback = MISS.bindTo(this).asCollector(Object[].class, type().parameterCount()).asType(type());
+        setTarget(fallback);
+    }
+
+    /**
+     * Invoked when the receiver class isn't in the guard chain yet.
+     */
+    private Object miss(Object[] args) throws Throwable {
+        Class<?> c = args[0].getClass();
+        MethodHandle m = resolve(c);
+
+        synchronized (this) {
+            if (table==null && !resolved.containsKey(c)) {
+                resolved.put(c,m);
+                if (resolved.size()<=maxDepth) {
+                    MethodHandle test = MethodHandles.dropArguments(
+                            IS_CLASS.bindTo(c).asType(methodType(boolean.class, type().parameterType(0))),
+                            1, type().dropParameterTypes(0,1).parameterList());
+                    setTarget(MethodHandles.guardWithTest(test, m, getTarget()));
+                } else {
+                    table = new ClassValue<MethodHandle>() {
+                        @Override
+                        protected MethodHandle computeValue(Class<?> type) {
+                            synchronized (PolymorphicCallSite.this) {
+                                MethodHandle h = resolved.get(type);
+                                if (h!=null)    return h;
+                            }
+                            return resolve(type);
+                        }
+                    };
+                    MethodHandle lookup = LOOKUP.bindTo(this).asType(methodType(MethodHandle.class, type().parameterType(0)));
+                    setTarget(MethodHandles.foldArguments(MethodHandles.exactInvoker(type()), lookup));
+                }
+            }
+        }
+
+        return m.invokeWithArguments(args);
+    }
+
+    /**
+     * Finds the method from the table once the call site is megamorphic.
+     */
+    private MethodHandle lookup(Object receiver) {
+        return table.get(receiver.getClass());
+    }
+
+    private MethodHandle resolve(Class<?> receiverClass) {
+        try {
+            return resolver.resolve(receiverClass).asType(type());
+        } catch (ReflectiveOperationException e) {
+            throw new LinkageError("Unable to link "+type()+" for "+receiverClass, e);
+        }
+    }
+
+    private static boolean isClass(Class<?> c, Object o) {
+        return o.getClass()==c;
+    }
+
+    private static final MethodHandle MISS;
+    private static final MethodHandle LOOKUP;
+    private static final MethodHandle IS_CLASS;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            MISS = l.findVirtual(PolymorphicCallSite.class, "miss", methodType(Object.class, Object[].class));
+            LOOKUP = l.findVirtual(PolymorphicCallSite.class, "lookup", methodType(MethodHandle.class, Object.class));
+            IS_CLASS = l.findStatic(PolymorphicCallSite.class, "isClass", methodType(boolean.class, Class.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+/**
+ * Call site that counts its invocations while {@link SiteProfiler} is enabled.
+ *
+ * <p>
+ * The counting target is guarded by the {@link SwitchPoint} of the profiler, so disabling the profiler
+ * sends all the call sites back to their bare targets at once, and the JIT compiler drops the guard.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class ProfiledCallSite extends MutableCallSite {
+    private final MethodHandle bare;
+    private final MethodHandle counting;
+
+    ProfiledCallSite(MethodHandle bare, StripedCounters.Counter counter) {
+        super(bare.type());
+        this.bare = bare;
+        this.counting = MethodHandles.foldArguments(bare, INCREMENT.bindTo(counter));
+        setTarget(bare);
+    }
+
+    /**
+     * Updates the target for the current state of the profiler.
+     */
+    synchronized void arm() {
+        SwitchPoint sp = SiteProfiler.switchPoint();
+        setTarget(sp==null ? bare : sp.guardWithTest(counting, bare));
+    }
+
+    private static final MethodHandle INCREMENT;
+
+    static {
+        try {
+            INCREMENT = MethodHandles.lookup().findVirtual(StripedCounters.Counter.class, "increment", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+/**
+ * Call site whose target is guarded by the {@link SwitchPoint} of its owner,
+ * and that links itself again when a change in {@link Linker}s invalidates it.
+ *
+ * <p>
+ * Until that happens, the JIT compiler treats the target as a constant, just like {@link ConstantCallSite}.
+ *
+ * @see LinkerBootstrap#RELINKABLE
+ * @author Kohsuke Kawaguchi
+ */
+final class RelinkableCallSite extends MutableCallSite {
+    private final Operation op;
+    private final Lookup caller;
+    private final String name;
+    private final Class<?> owner;
+    private final MethodHandle fallback;
+
+    RelinkableCallSite(Operation op, Lookup caller, String name, MethodType type, Class<?> owner) {
+        super(type);
+        this.op = op;
+        this.caller = caller;
+        this.name = name;
+        this.owner = owner;
+        this.fallback = RELINK_AND_INVOKE.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type);
+    }
+
+    /**
+     * Runs the linkers and updates the target.
+     */
+    void relink() throws ReflectiveOperationException {
+        SwitchPoint sp = LinkerRegistry.forClass(caller.lookupClass()).switchPoint(owner);
+        CallSite c = LinkCache.link(op, caller, name, type(), owner);
+        MethodHandle target = c instanceof ConstantCallSite ? c.getTarget() : c.dynamicInvoker();
+        setTarget(sp.guardWithTest(target, fallback));
+    }
+
+    private Object relinkAndInvoke(Object[] args) throws Throwable {
+        relink();
+        return getTarget().invokeWithArguments(args);
+    }
+
+    private static final MethodHandle RELINK_AND_INVOKE;
+
+    static {
+        try {
+            RELINK_AND_INVOKE = MethodHandles.lookup().findVirtual(RelinkableCallSite.class, "relinkAndInvoke",
+                    MethodType.methodType(Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.kohsuke.nomoretears;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the invocations of each call site, to find out which of them are hot, and which are never executed.
+ *
+ * <p>
+ * While the profiler is enabled, {@link LinkerBootstrap} links each call site to its own {@link ProfiledCallSite},
+ * which counts the invocations on counters striped across threads while the profiler stays enabled.
+ * Disabling it sends the call sites back to their bare targets through a {@link SwitchPoint}, and enabling it again
+ * resumes counting. The call sites linked while the profiler is disabled are never counted, so to profile
+ * the whole application, set the system property <tt>org.kohsuke.nomoretears.SiteProfiler.enabled</tt> to true.
+ * Set <tt>org.kohsuke.nomoretears.SiteProfiler.report</tt> to a file to have the report written there
+ * when the JVM exits. A call site is forgotten, along with its count, once it's garbage collected.
+ *
+ * <p>
+ * The profiler is exposed as an MXBean named {@value #OBJECT_NAME}, so it can be turned on and off remotely.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class SiteProfiler implements SiteProfilerMXBean {
+    public static final String OBJECT_NAME = "org.kohsuke.nomoretears:type=SiteProfiler";
+
+    private static final SiteProfiler INSTANCE = new SiteProfiler();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Guards the counting targets while the profiler is enabled. Null while it's disabled,
+     * when the call sites being linked aren't profiled.
+     */
+    private static volatile SwitchPoint switchPoint;
+
+    /**
+     * True if the profiler has been enabled since the startup without a break, so that every call site linked
+     * so far is in {@link #SITES}, and those that aren't have never been executed.
+     */
+    private static volatile boolean sinceStartup;
+
+    private static final Set<Site> SITES = Collections.newSetFromMap(new ConcurrentHashMap<Site,Boolean>());
+
+    /**
+     * Receives the {@link Site}s whose call sites have been garbage collected.
+     */
+    private static final ReferenceQueue<ProfiledCallSite> COLLECTED = new ReferenceQueue<>();
+
+    private static final StripedCounters COUNTERS = new StripedCounters();
+
+    private SiteProfiler() {}
+
+    public static SiteProfiler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * A profiled call site. The call site itself is only weakly referenced, so as not to keep its class alive.
+     */
+    private static final class Site extends WeakReference<ProfiledCallSite> {
+        final String caller;
+        final String method;
+        final Operation op;
+        final String owner;
+        final String name;
+        final MethodType type;
+        final StripedCounters.Counter counter;
+
+        Site(ProfiledCallSite site, StripedCounters.Counter counter,
+             String caller, String method, Operation op, String owner, String name, MethodType type) {
+            super(site, COLLECTED);
+            this.counter = counter;
+            this.caller = caller;
+            this.method = method;
+            this.op = op;
+            this.owner = owner;
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * Key in {@link #getInvocationCounts()}. Call sites in the same method that make the same reference share it.
+         */
+        String key() {
+            return caller+'#'+method+' '+op+' '+op.describe(owner,name,type);
+        }
+
+        /**
+         * The reference in the form of {@link CallSiteManifest.Entry}.
+         */
+        String reference() {
+            return caller+' '+op+' '+owner+' '+name+' '+type.toMethodDescriptorString();
+        }
+    }
+
+    static boolean isInstalled() {
+        return switchPoint!=null;
+    }
+
+    static SwitchPoint switchPoint() {
+        return switchPoint;
+    }
+
+    /**
+     * Wraps the linked call site into one that counts its invocations.
+     */
+    static CallSite wrap(Operation op, Lookup caller, String name, MethodType type, Class<?> owner, CallSite site) {
+        MethodHandle bare = site instanceof ConstantCallSite ? site.getTarget() : site.dynamicInvoker();
+        Class<?> c = caller.lookupClass();
+        expunge();
+        StripedCounters.Counter counter = COUNTERS.allocate();
+        ProfiledCallSite p = new ProfiledCallSite(bare, counter);
+        // registered before it's armed, so that it's armed for the latest state even if that changes in between
+        SITES.add(new Site(p, counter, c.getName(), callerMethod(c), op, owner.getName(), name, type));
+        p.arm();
+        return p;
+    }
+
+    /**
+     * Forgets the call sites that have been garbage collected, and reuses their counters.
+     */
+    private static void expunge() {
+        Reference<? extends ProfiledCallSite> r;
+        while ((r=COLLECTED.poll())!=null) {
+            Site s = (Site)r;
+            if (SITES.remove(s))
+                COUNTERS.free(s.counter);
+        }
+    }
+
+    /**
+     * Finds the method of the caller whose call site is being linked, from the stack of the bootstrap.
+     */
+    private static String callerMethod(Class<?> c) {
+        for (StackTraceElement e : new Throwable().getStackTrace()) {
+            if (e.getClassName().equals(c.getName()))
+                return e.getMethodName();
+        }
+        return "?";     // linked ahead of time, not by its own bootstrap
+    }
+
+    public boolean isEnabled() {
+        return switchPoint!=null;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled==isEnabled())
+            return;
+        if (enabled) {
+            try {
+                ObjectName on = new ObjectName(OBJECT_NAME);
+                if (!ManagementFactory.getPlatformMBeanServer().isRegistered(on))
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Failed to register "+OBJECT_NAME, e);
+            }
+            switchPoint = new SwitchPoint();
+            for (Site s : SITES) {
+                ProfiledCallSite p = s.get();
+                if (p!=null)
+                    p.arm();
+            }
+        } else {
+            SwitchPoint sp = switchPoint;
+            switchPoint = null;
+            sinceStartup = false;
+            SwitchPoint.invalidateAll(new SwitchPoint[]{sp});
+        }
+    }
+
+    public int getSiteCount() {
+        expunge();
+        return SITES.size();
+    }
+
+    public Map<String,Long> getInvocationCounts() {
+        expunge();
+        Map<String,Long> r = new TreeMap<>();
+        for (Site s : SITES) {
+            String k = s.key();
+            Long v = r.get(k);
+            r.put(k, (v==null ? 0 : v) + s.counter.get());
+        }
+        return r;
+    }
+
+    public void reset() {
+        for (Site s : SITES)
+            s.counter.reset();
+    }
+
+    public void writeReport(String file) throws IOException {
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file), UTF8)) {
+            writeReport(w, ClassLoader.getSystemClassLoader());
+        }
+    }
+
+    /**
+     * Writes the invocation counts, hottest first, followed by the call sites that have never been executed.
+     *
+     * @param manifests
+     *      The call sites listed in the {@link CallSiteManifest}s visible from this class loader that haven't been
+     *      linked are reported as never executed. Null to skip that part. It's skipped anyway unless the profiler
+     *      has been enabled since the startup without a break, as the call sites linked while it was disabled
+     *      can't be told from those that have never been executed.
+     */
+    public void writeReport(Writer w, ClassLoader manifests) throws IOException {
+        List<Map.Entry<String,Long>> counts = new ArrayList<>(getInvocationCounts().entrySet());
+        Collections.sort(counts, new Comparator<Map.Entry<String,Long>>() {
+            public int compare(Map.Entry<String,Long> a, Map.Entry<String,Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        long total = 0;
+        for (Map.Entry<String,Long> e : counts)
+            total += e.getValue();
+
+        PrintWriter out = new PrintWriter(w);
+        out.printf("# %d call sites, %d invocations%n", SITES.size(), total);
+        for (Map.Entry<String,Long> e : counts)
+            out.printf("%d\t%s%n", e.getValue(), e.getKey());
+
+        if (manifests!=null && sinceStartup) {
+            Set<String> linked = new HashSet<>();
+            for (Site s : SITES)
+                linked.add(s.reference());
+
+            out.println("# never executed");
+            Enumeration<URL> e = manifests.getResources(CallSiteManifest.RESOURCE);
+            while (e.hasMoreElements()) {
+                try (InputStream in = e.nextElement().openStream()) {
+                    for (CallSiteManifest.Entry s : CallSiteManifest.read(in)) {
+                        if (!linked.contains(s.toString()))
+                            out.println(s);
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(SiteProfiler.class.getName());
+
+    static {
+        if (Boolean.getBoolean(SiteProfiler.class.getName()+".enabled")) {
+            INSTANCE.setEnabled(true);
+            sinceStartup = true;
+        }
+
+        final String report = System.getProperty(SiteProfiler.class.getName()+".report");
+        if (report!=null) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        INSTANCE.writeReport(report);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to write "+report, e);
+                    }
+                }
+            });
+        }
+    }
+}
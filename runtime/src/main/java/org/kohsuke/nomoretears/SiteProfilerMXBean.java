@@ -0,0 +1,35 @@
+package org.kohsuke.nomoretears;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Management interface of {@link SiteProfiler}.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public interface SiteProfilerMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Number of call sites linked since the profiler was first enabled.
+     */
+    int getSiteCount();
+
+    /**
+     * Number of invocations counted while the profiler was enabled, keyed by the caller class and method,
+     * and the referenced member, like "com.acme.Foo#run invokeStatic com.acme.Bar.baz()void".
+     */
+    Map<String,Long> getInvocationCounts();
+
+    /**
+     * Writes the report to the given file.
+     *
+     * @see SiteProfiler#writeReport(java.io.Writer, ClassLoader)
+     */
+    void writeReport(String file) throws IOException;
+
+    void reset();
+}
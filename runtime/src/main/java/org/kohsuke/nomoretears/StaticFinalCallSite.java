@@ -0,0 +1,46 @@
+package org.kohsuke.nomoretears;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * Call site that reads a static final through its getter until the class that declares it has been initialized,
+ * and then switches to its value, which the JIT compiler can fold like it would for <tt>getstatic</tt>.
+ *
+ * <p>
+ * As this isn't a {@link java.lang.invoke.ConstantCallSite}, {@link LinkCache} doesn't share it, so the call sites
+ * linked after the class has been initialized are linked to the value right away.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class StaticFinalCallSite extends MutableCallSite {
+    private final MethodHandle getter;
+    private final Class<?> declarer;
+
+    StaticFinalCallSite(MethodHandle getter, Class<?> declarer) {
+        super(getter.type());
+        this.getter = getter;
+        this.declarer = declarer;
+        setTarget(READ.bindTo(this).asType(getter.type()));
+    }
+
+    private Object read() throws Throwable {
+        Object value = getter.invoke();
+        // not while the class is being initialized, when the field might not have been assigned yet
+        if (DefaultLinker.isInitialized(declarer))
+            setTarget(MethodHandles.constant(type().returnType(), value));
+        return value;
+    }
+
+    private static final MethodHandle READ;
+
+    static {
+        try {
+            READ = MethodHandles.lookup().findVirtual(StaticFinalCallSite.class, "read", MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.kohsuke.nomoretears;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of many call sites, striped across threads.
+ *
+ * <p>
+ * Each stripe keeps its counters in arrays of its own, so threads of different stripes don't write to the same
+ * cache line, and yet each counter only takes one long per stripe.
+ * Counters are incremented without a locked instruction, which costs a fraction of an atomic increment,
+ * at the expense of losing an increment now and then when two threads of the same stripe race.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class StripedCounters {
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1,Runtime.getRuntime().availableProcessors()-1)<<1);
+
+    /**
+     * Number of counters that share the arrays.
+     */
+    private static final int CHUNK = 1024;
+
+    private int size;
+
+    /**
+     * Counters that are no longer used, to be allocated again.
+     */
+    private final ArrayDeque<Counter> free = new ArrayDeque<>();
+
+    /**
+     * Arrays of the chunk that counters are being allocated from, one per stripe.
+     */
+    private AtomicLongArray[] chunk;
+
+    synchronized Counter allocate() {
+        Counter c = free.poll();
+        if (c!=null) {
+            c.reset();
+            return c;
+        }
+        if (size%CHUNK==0) {
+            chunk = new AtomicLongArray[STRIPES];
+            for (int i=0; i<STRIPES; i++)
+                chunk[i] = new AtomicLongArray(CHUNK);
+        }
+        return new Counter(chunk, size++%CHUNK);
+    }
+
+    /**
+     * Gives back a counter that nothing increments any more.
+     */
+    synchronized void free(Counter c) {
+        free.add(c);
+    }
+
+    static final class Counter {
+        private final AtomicLongArray[] stripes;
+        private final int index;
+
+        Counter(AtomicLongArray[] stripes, int index) {
+            this.stripes = stripes;
+            this.index = index;
+        }
+
+        void increment() {
+            AtomicLongArray a = stripes[(int)Thread.currentThread().getId() & (STRIPES-1)];
+            a.lazySet(index, a.get(index)+1);
+        }
+
+        long get() {
+            long r = 0;
+            for (AtomicLongArray a : stripes)
+                r += a.get(index);
+            return r;
+        }
+
+        void reset() {
+            for (AtomicLongArray a : stripes)
+                a.set(index, 0);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.kohsuke.nomoretears;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with power-of-two buckets, striped across threads so that
+ * concurrent recordings don't contend on the same cache line.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class StripedHistogram {
+    /**
+     * Element i of {@link #getBuckets()} counts durations in [2^(i-1),2^i) microseconds,
+     * except the first one, which counts those under a microsecond, and the last one, which counts everything longer.
+     */
+    static final int BUCKETS = 24;
+
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1,Runtime.getRuntime().availableProcessors()-1)<<1);
+
+    /**
+     * Each stripe is laid out as [count, total nanos, buckets...], padded to keep stripes in separate cache lines.
+     */
+    private static final int STRIDE = ((BUCKETS+2+7)/8+1)*8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES*STRIDE);
+
+    void record(long nanos) {
+        int base = ((int)Thread.currentThread().getId() & (STRIPES-1))*STRIDE;
+        cells.incrementAndGet(base);
+        cells.addAndGet(base+1, nanos);
+        long micros = nanos/1000;
+        cells.incrementAndGet(base+2+Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(micros)));
+    }
+
+    long getCount() {
+        return sum(0);
+    }
+
+    long getTotalNanos() {
+        return sum(1);
+    }
+
+    long[] getBuckets() {
+        long[] r = new long[BUCKETS];
+        for (int i=0; i<BUCKETS; i++)
+            r[i] = sum(2+i);
+        return r;
+    }
+
+    void reset() {
+        for (int i=0; i<cells.length(); i++)
+            cells.set(i,0);
+    }
+
+    private long sum(int offset) {
+        long r = 0;
+        for (int s=0; s<STRIPES; s++)
+            r += cells.get(s*STRIDE+offset);
+        return r;
+    }
+}
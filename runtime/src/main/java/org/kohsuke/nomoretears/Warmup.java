@@ -0,0 +1,134 @@
+package org.kohsuke.nomoretears;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Links the call sites listed in {@link CallSiteManifest}s ahead of time, so that the bootstraps that happen
+ * when they are first executed find the links in {@link LinkCache}.
+ *
+ * <p>
+ * Run this before the application starts taking traffic. The caller classes are loaded but not initialized.
+ * On Java 9 and later, the call sites are linked with the full access of their classes, just like the
+ * bootstrap would. Where that access can't be had, such as on earlier versions or in packages that aren't
+ * open to this library, the call sites are left for the bootstrap to link, as a link made with less access
+ * could differ from what the bootstrap would make, yet it'd be shared with the bootstrap through the cache.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public final class Warmup {
+    private Warmup() {}
+
+    /**
+     * Links the call sites listed in all the manifests visible from the given class loader,
+     * with as many threads as there are processors.
+     *
+     * @return number of call sites that got linked.
+     */
+    public static int run(ClassLoader loader) throws IOException, InterruptedException {
+        ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return run(loader, es);
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * Links the call sites listed in all the manifests visible from the given class loader, on the given executor.
+     *
+     * @return number of call sites that got linked.
+     */
+    public static int run(final ClassLoader loader, ExecutorService executor) throws IOException, InterruptedException {
+        List<Future<Boolean>> results = new ArrayList<>();
+        Enumeration<URL> manifests = loader.getResources(CallSiteManifest.RESOURCE);
+        while (manifests.hasMoreElements()) {
+            try (InputStream in = manifests.nextElement().openStream()) {
+                for (final CallSiteManifest.Entry e : CallSiteManifest.read(in)) {
+                    results.add(executor.submit(new Callable<Boolean>() {
+                        public Boolean call() {
+                            return link(loader, e);
+                        }
+                    }));
+                }
+            }
+        }
+
+        int n = 0;
+        for (Future<Boolean> f : results) {
+            try {
+                if (f.get())    n++;
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, "Failed to link", e.getCause());
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Links one call site.
+     *
+     * @return false if it failed to link, which is left for the bootstrap to report.
+     */
+    static boolean link(ClassLoader loader, CallSiteManifest.Entry e) {
+        try {
+            Lookup caller = lookupFor(Class.forName(e.caller, false, loader));
+            if (caller==null)
+                return false;
+            MethodType type = MethodType.fromMethodDescriptorString(e.descriptor, caller.lookupClass().getClassLoader());
+            LinkCache.link(e.operation, caller, e.name, type, LinkerBootstrap.resolve(caller, e.owner));
+            return true;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException x) {
+            LOGGER.log(Level.FINE, "Failed to link "+e, x);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the lookup with the same access as what the bootstrap of a call site in this class receives.
+     *
+     * @return null if that can't be had.
+     */
+    static Lookup lookupFor(Class<?> c) {
+        if (PRIVATE_LOOKUP_IN!=null) {
+            try {
+                return (Lookup)PRIVATE_LOOKUP_IN.invoke(null, c, MethodHandles.lookup());
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to obtain the private lookup of "+c, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * MethodHandles.privateLookupIn, available on Java 9 and later.
+     */
+    private static final Method PRIVATE_LOOKUP_IN;
+
+    static {
+        Method m;
+        try {
+            m = MethodHandles.class.getMethod("privateLookupIn", Class.class, Lookup.class);
+        } catch (NoSuchMethodException e) {
+            m = null;
+        }
+        PRIVATE_LOOKUP_IN = m;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Warmup.class.getName());
+}
@@ -0,0 +1,91 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link AdaptingLinker} links references compiled against an older version of a class.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Adapting extends Assert implements Callable {
+    /**
+     * The current version of the class, which used to have:
+     *
+     * <pre>
+     * Object get();
+     * int twice(int);
+     * String name();
+     * int width;
+     * Api(int);
+     * </pre>
+     */
+    public static class Api {
+        public long width = 5;
+
+        public Api(long x) {}
+
+        public String get() {
+            return "got";
+        }
+
+        public long twice(long x) {
+            return x*2;
+        }
+
+        public static String name() {
+            return "api";
+        }
+    }
+
+    private static Object invoke(CallSite s, Object... args) throws Exception {
+        try {
+            return s.dynamicInvoker().invokeWithArguments(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Error(t);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        Lookup l = MethodHandles.lookup();
+        AdaptingLinker linker = new AdaptingLinker();
+        Api api = new Api(0);
+
+        // covariant return
+        CallSite s = linker.invokeVirtual(l, "get", MethodType.methodType(Object.class), Api.class);
+        assertEquals("got", invoke(s, api));
+
+        // widened primitive parameter, boxed return
+        s = linker.invokeVirtual(l, "twice", MethodType.methodType(Long.class, int.class), Api.class);
+        assertEquals(Long.valueOf(6), invoke(s, api, 3));
+
+        // became static
+        s = linker.invokeVirtual(l, "name", MethodType.methodType(String.class), Api.class);
+        assertEquals("api", invoke(s, api));
+
+        // result ignored
+        s = linker.invokeVirtual(l, "twice", MethodType.methodType(void.class, int.class), Api.class);
+        invoke(s, api, 3);
+
+        // widened field and constructor parameter
+        s = linker.putField(l, "width", int.class, Api.class);
+        invoke(s, api, 7);
+        assertEquals(7L, api.width);
+        s = linker.invokeConstructor(l, MethodType.methodType(void.class, int.class), Api.class);
+        assertTrue(invoke(s, 1) instanceof Api);
+
+        // narrowing isn't done
+        assertNull(linker.getField(l, "width", int.class, Api.class));
+        assertNull(linker.invokeVirtual(l, "twice", MethodType.methodType(int.class, int.class), Api.class));
+        assertNull(linker.invokeVirtual(l, "get", MethodType.methodType(Integer.class), Api.class));
+        return null;
+    }
+}
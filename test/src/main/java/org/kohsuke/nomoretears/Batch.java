@@ -0,0 +1,80 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The first bootstrap in a class links the references of all its call sites at once.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Batch extends Assert implements Callable {
+    public static class Target {
+        public static int one() {
+            return 1;
+        }
+
+        public static int two() {
+            return 2;
+        }
+
+        public static int three() {
+            return 3;
+        }
+    }
+
+    public static class Caller {
+        public static int first() {
+            return Target.one();
+        }
+
+        public static int rest() {
+            return Target.two()+Target.three();
+        }
+    }
+
+    /**
+     * Records the number of requests in each batch it's given.
+     */
+    static class RecordingLinker extends DefaultLinker {
+        final List<Integer> batches = new ArrayList<>();
+
+        @Override
+        public Collection<String> getScope() {
+            return Collections.singleton(Target.class.getName());
+        }
+
+        @Override
+        public void link(Lookup caller, List<LinkRequest> requests) throws ReflectiveOperationException {
+            batches.add(requests.size());
+            super.link(caller, requests);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        boolean old = LinkerBootstrap.BATCH;
+        LinkerBootstrap.BATCH = true;
+        RecordingLinker l = new RecordingLinker();
+        // ahead of the default linker, which would link everything otherwise
+        LinkerRegistry.global().registerFirst(l);
+        try {
+            assertEquals(1, Caller.first());
+            assertEquals(Collections.singletonList(3), l.batches);
+
+            // the rest of the call sites are linked already
+            assertEquals(5, Caller.rest());
+            assertEquals(Collections.singletonList(3), l.batches);
+        } finally {
+            l.unregister();
+            LinkerBootstrap.BATCH = old;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads that bootstrap the same reference at once wait for one linking run, and share its outcome
+ * only if it's a {@link ConstantCallSite}.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class ConcurrentLink extends Assert implements Callable {
+    private static final int THREADS = 8;
+
+    static class Target {
+        static int ping() {
+            return 1;
+        }
+    }
+
+    /**
+     * Counts its runs, and takes its time so that the other threads catch up with the one running it.
+     * Links "ping" to a constant call site, and "pong" to a mutable one.
+     */
+    static class Slow extends Relink.NoopLinker {
+        final AtomicInteger runs = new AtomicInteger();
+
+        Slow() {
+            super(Target.class);
+        }
+
+        @Override
+        public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) {
+            runs.incrementAndGet();
+            try {
+                Thread.sleep(200);
+                return methodName.equals("ping")
+                        ? new ConstantCallSite(caller.findStatic(owner, "ping", signature))
+                        : new MutableCallSite(caller.findStatic(owner, "ping", signature));
+            } catch (InterruptedException | ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        Slow slow = new Slow();
+        LinkerRegistry.global().registerFirst(slow);
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<CallSite> sites = linkAtOnce(es, "ping");
+            assertEquals(1, slow.runs.get());
+            assertEquals(1, distinct(sites));
+
+            slow.runs.set(0);
+            sites = linkAtOnce(es, "pong");
+            assertEquals(THREADS, slow.runs.get());
+            assertEquals(THREADS, distinct(sites));
+        } finally {
+            es.shutdown();
+            slow.unregister();
+        }
+        return null;
+    }
+
+    private List<CallSite> linkAtOnce(ExecutorService es, final String name) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final Lookup lookup = MethodHandles.lookup();
+        List<Future<CallSite>> futures = new ArrayList<>();
+        for (int i=0; i<THREADS; i++) {
+            futures.add(es.submit(new Callable<CallSite>() {
+                public CallSite call() throws Exception {
+                    barrier.await();
+                    return LinkCache.link(Operation.INVOKE_STATIC, lookup, name, MethodType.methodType(int.class), Target.class);
+                }
+            }));
+        }
+        List<CallSite> sites = new ArrayList<>();
+        for (Future<CallSite> f : futures)
+            sites.add(f.get());
+        return sites;
+    }
+
+    private static int distinct(List<CallSite> sites) {
+        Set<CallSite> s = Collections.newSetFromMap(new IdentityHashMap<CallSite,Boolean>());
+        s.addAll(sites);
+        return s.size();
+    }
+}
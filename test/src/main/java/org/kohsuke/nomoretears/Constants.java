@@ -0,0 +1,114 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+
+/**
+ * Static finals read before their classes finish initializing aren't frozen at the values they had then,
+ * and linking them doesn't initialize their classes. Once they have, they are linked to their values.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Constants extends Assert implements Callable {
+    public static class Cycle {
+        public static final Object EARLY = Peek.value();
+        public static final Object VALUE = new Object();
+    }
+
+    public static class Peek {
+        public static Object value() {
+            return Cycle.VALUE;
+        }
+    }
+
+    public static class Late {
+        public static Object value() {
+            return Cycle.VALUE;
+        }
+    }
+
+    public static class Untouched {
+        public static final Object VALUE = new Object();
+
+        static {
+            initialized = true;
+        }
+    }
+
+    static boolean initialized;
+
+    /**
+     * Can {@link DefaultLinker} tell if a class has been initialized? It links static finals to their getters if not.
+     */
+    private static boolean canTellInitialized() {
+        try {
+            Class.forName("sun.misc.Unsafe").getMethod("shouldBeInitialized", Class.class);
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Is the handle a direct one, such as a getter, as opposed to a constant? Null if that can't be told.
+     */
+    private static Boolean isDirect(MethodHandle h) throws Exception {
+        Method m;
+        try {
+            m = Lookup.class.getMethod("revealDirect", MethodHandle.class);   // since Java 8
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        try {
+            m.invoke(MethodHandles.lookup(), h);
+            return true;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IllegalArgumentException)
+                return false;
+            throw e;
+        }
+    }
+
+    private static Object read(CallSite site) throws Exception {
+        try {
+            return site.getTarget().invokeWithArguments();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        // Peek reads the field while Cycle is being initialized, and sees null
+        assertNull(Cycle.EARLY);
+        // the call site of Peek reads it again now that Cycle has been initialized
+        assertSame(Cycle.VALUE, Peek.value());
+        assertSame(Cycle.VALUE, Late.value());
+
+        CallSite site = new DefaultLinker().getStatic(MethodHandles.lookup(), "VALUE", Object.class, Untouched.class);
+        assertFalse(initialized);
+        assertSame(Untouched.VALUE, read(site));
+        assertTrue(initialized);
+
+        Boolean direct = isDirect(site.getTarget());
+        if (canTellInitialized() && direct!=null) {
+            // linked before the class was initialized, to a call site that switched to the value on the first read
+            assertFalse(site instanceof ConstantCallSite);
+            assertFalse(direct);
+            CallSite constant = new DefaultLinker().getStatic(MethodHandles.lookup(), "VALUE", Object.class, Untouched.class);
+            assertSame(Untouched.VALUE, read(constant));
+            assertFalse(isDirect(constant.getTarget()));
+        }
+        return null;
+    }
+}
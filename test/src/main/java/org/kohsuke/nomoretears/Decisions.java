@@ -0,0 +1,69 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.io.File;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link LinkDecisionCache} remembers the winning linker across a save and a load, and looks it up in the mapped file.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Decisions extends Assert implements Callable {
+    private static final int MANY = 100;
+
+    static class Target {
+        static String ping() {
+            return "pong";
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        Operation op = Operation.INVOKE_STATIC;
+        MethodType type = MethodType.methodType(String.class);
+        LinkerIndex index = LinkerRegistry.forClass(Decisions.class).getIndex();
+        Linker[] candidates = index.candidates(op, Target.class);
+        Linker winner = candidates[candidates.length-1];
+
+        File f = File.createTempFile("decisions","bin");
+        try {
+            LinkDecisionCache.remember(index, winner, op, Decisions.class, "ping", type, Target.class);
+            LinkDecisionCache.save(f);
+            LinkDecisionCache.forget(op, Decisions.class, "ping", type, Target.class);
+            assertNull(LinkDecisionCache.recall(index, candidates, op, Decisions.class, "ping", type, Target.class));
+
+            LinkDecisionCache.load(f);
+            assertSame(winner, LinkDecisionCache.recall(index, candidates, op, Decisions.class, "ping", type, Target.class));
+            // the decision applies to the whole package of the caller
+            assertSame(winner, LinkDecisionCache.recall(index, candidates, op, Stats.class, "ping", type, Target.class));
+            // but not to another reference
+            assertNull(LinkDecisionCache.recall(index, candidates, op, Decisions.class, "pong", type, Target.class));
+
+            // looked up in the mapped file, among many
+            for (int i=0; i<MANY; i++)
+                LinkDecisionCache.remember(index, winner, op, Decisions.class, "m"+i, type, Target.class);
+            LinkDecisionCache.save(f);
+            for (int i=0; i<MANY; i++)
+                LinkDecisionCache.forget(op, Decisions.class, "m"+i, type, Target.class);
+            LinkDecisionCache.load(f);
+            for (int i=0; i<MANY; i++)
+                assertSame(winner, LinkDecisionCache.recall(index, candidates, op, Decisions.class, "m"+i, type, Target.class));
+
+            // a decision of the mapped file that's dropped isn't written back
+            LinkDecisionCache.forget(op, Decisions.class, "m0", type, Target.class);
+            LinkDecisionCache.save(f);
+            LinkDecisionCache.load(f);
+            assertNull(LinkDecisionCache.recall(index, candidates, op, Decisions.class, "m0", type, Target.class));
+            assertSame(winner, LinkDecisionCache.recall(index, candidates, op, Decisions.class, "m1", type, Target.class));
+        } finally {
+            LinkDecisionCache.forget(op, Decisions.class, "ping", type, Target.class);
+            for (int i=0; i<MANY; i++)
+                LinkDecisionCache.forget(op, Decisions.class, "m"+i, type, Target.class);
+            f.delete();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link DirectLink} and the exclude rule in the POM keep references from being lazily linked.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Direct extends Assert implements Callable {
+    public static class Target {
+        public static int direct() {
+            return 1;
+        }
+
+        public static int lazy() {
+            return 2;
+        }
+    }
+
+    @DirectLink
+    public static class Hot {
+        public int run() {
+            return Target.lazy();
+        }
+    }
+
+    public static class Excluded {
+        public static int counter;
+        public int instance;
+    }
+
+    @DirectLink
+    private int direct() {
+        return Target.direct();
+    }
+
+    private int lazy() {
+        return Target.lazy();
+    }
+
+    @Override
+    public Object call() throws Exception {
+        assertEquals(1, direct());
+        assertEquals(2, lazy());
+        assertEquals(2, new Hot().run());
+        Excluded e = new Excluded();
+        Excluded.counter = e.instance = 3;
+
+        boolean lazy = false, instance = false;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(CallSiteManifest.RESOURCE)) {
+            for (CallSiteManifest.Entry s : CallSiteManifest.read(in)) {
+                assertFalse(s.toString(), s.caller.equals(Hot.class.getName()));
+                assertFalse(s.toString(), s.name.equals("direct") && s.owner.equals(Target.class.getName()));
+                assertFalse(s.toString(), s.name.equals("counter"));
+                lazy |= s.name.equals("lazy");
+                instance |= s.name.equals("instance");
+            }
+        }
+        assertTrue(lazy);
+        assertTrue(instance);   // the rule only excludes static fields
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Branches while the object being constructed is on the stack, which the rewritten code
+ * needs new stack map frames for.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Frames extends Assert implements Callable {
+    public static class Point {
+        public final int x, y;
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public Point(Point p, boolean swap) {
+            this(swap ? p.y : p.x, swap ? p.x : p.y);
+        }
+    }
+
+    public Object call() throws Exception {
+        boolean flag = Boolean.parseBoolean("true");
+
+        Point p = new Point(flag ? 1 : 2, flag ? 3 : 4);
+        assertEquals(1,p.x);
+        assertEquals(3,p.y);
+
+        Point q = new Point(new Point(flag ? 5 : 6, 7), flag);
+        assertEquals(7,q.x);
+        assertEquals(5,q.y);
+
+        int sum = 0;
+        for (int i=0; i<3; i++)
+            sum += new Point(i, i%2==0 ? i : -i).y;
+        assertEquals(0+(-1)+2,sum);
+        return null;
+    }
+}
@@ -0,0 +1,230 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * {@link JarTransformer} writes, through {@link RawZip}, a jar that {@link ZipFile} reads back intact,
+ * from a jar that has stored and deflated entries, data descriptors, a multi-release class, and
+ * a {@link CallSiteManifest} to merge. Then again from a jar that also has a launcher script prepended
+ * and more than 65535 entries. One transformer also transforms jars that refer to each other, one after another.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Jars extends Assert implements Callable {
+    private static final String SCRIPT = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n";
+
+    /**
+     * Enough for the zip64 end of central directory.
+     */
+    private static final int FILLERS = 70000;
+
+    private static final String VERSIONED = "META-INF/versions/11/gen/Caller.class";
+
+    @Override
+    public Object call() throws Exception {
+        roundTrip(false, 3);
+        roundTrip(true, FILLERS);
+        acrossJars();
+        return null;
+    }
+
+    /**
+     * The classes of a jar aren't local to the jars that the same transformer transforms after it.
+     */
+    private void acrossJars() throws Exception {
+        LinkPolicy policy = new LinkPolicy();
+        JarTransformer jt = new JarTransformer(policy);
+        File target = File.createTempFile("target", ".jar");
+        File caller = File.createTempFile("caller", ".jar");
+        File out = File.createTempFile("output", ".jar");
+        try {
+            writeJar(target, "gen/Target.class", type("gen/Target"));
+            writeJar(caller, "gen/Caller.class", caller("foo"));
+
+            assertTrue(jt.transform(target, out).isEmpty());
+            assertTrue(jt.transform(caller, out).isEmpty());
+            try (ZipFile z = new ZipFile(out);
+                 InputStream is = z.getInputStream(z.getEntry("gen/Caller.class"))) {
+                byte[] data = readAll(is);
+                assertTrue(ClassTransformer.isTransformed(data, 0, data.length));
+            }
+            assertTrue(policy.isLinked(Operation.INVOKE_STATIC, "gen/Target", false));
+        } finally {
+            target.delete();
+            caller.delete();
+            out.delete();
+        }
+    }
+
+    private static void writeJar(File jar, String name, byte[] data) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+            put(zos, name, data, false, new HashMap<String,byte[]>(), new ArrayList<String>());
+        }
+    }
+
+    private void roundTrip(boolean script, int fillers) throws Exception {
+        File in = File.createTempFile("input", ".jar");
+        File out = File.createTempFile("output", ".jar");
+        try {
+            Map<String,byte[]> contents = new HashMap<>();
+            List<String> names = writeInput(in, script, fillers, contents);
+
+            Map<String,Throwable> failures = new JarTransformer(new LinkPolicy()).transform(in, out);
+            assertTrue(failures.toString(), failures.isEmpty());
+
+            try (ZipFile z = new ZipFile(out)) {
+                List<String> actual = new ArrayList<>();
+                Map<String,byte[]> read = new HashMap<>();
+                Enumeration<? extends ZipEntry> e = z.entries();
+                while (e.hasMoreElements()) {
+                    ZipEntry ze = e.nextElement();
+                    byte[] data;
+                    try (InputStream is = z.getInputStream(ze)) {
+                        data = readAll(is);
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    assertEquals(ze.getName(), ze.getCrc(), crc.getValue());
+                    assertEquals(ze.getName(), ze.getSize(), data.length);
+                    actual.add(ze.getName());
+                    read.put(ze.getName(), data);
+                }
+
+                // same entries in the same order, with the manifest moved to the end
+                List<String> expected = new ArrayList<>(names);
+                expected.remove(CallSiteManifest.RESOURCE);
+                expected.add(CallSiteManifest.RESOURCE);
+                assertEquals(expected, actual);
+
+                for (String name : names) {
+                    byte[] data = read.get(name);
+                    if (name.equals("gen/Caller.class") || name.equals(VERSIONED)) {
+                        assertTrue(name, ClassTransformer.isTransformed(data, 0, data.length));
+                    } else if (!name.equals(CallSiteManifest.RESOURCE)) {
+                        assertTrue(name, Arrays.equals(contents.get(name), data));
+                    }
+                }
+                // copied without being inflated and deflated again
+                assertEquals(ZipEntry.STORED, z.getEntry("readme.txt").getMethod());
+                assertEquals(ZipEntry.DEFLATED, z.getEntry("gen/Plain.class").getMethod());
+
+                // the call sites of both versions of the class, and those of the one transformed before
+                Set<String> sites = new HashSet<>();
+                try (InputStream is = z.getInputStream(z.getEntry(CallSiteManifest.RESOURCE))) {
+                    for (CallSiteManifest.Entry s : CallSiteManifest.read(is))
+                        sites.add(s.caller+'.'+s.name);
+                }
+                assertEquals(new HashSet<>(Arrays.asList("gen.Caller.foo", "gen.Caller.bar", "gen.Old.baz")), sites);
+            }
+        } finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    /**
+     * @return
+     *      names of the entries in the order they are written.
+     */
+    private List<String> writeInput(File jar, boolean script, int fillers, Map<String,byte[]> contents) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (OutputStream os = new FileOutputStream(jar)) {
+            if (script)
+                os.write(SCRIPT.getBytes(StandardCharsets.UTF_8));
+            // its offsets don't count the script
+            try (ZipOutputStream zos = new ZipOutputStream(os)) {
+                // deflated with data descriptors, as ZipOutputStream does it
+                put(zos, "gen/Caller.class", caller("foo"), false, contents, names);
+                put(zos, "gen/Plain.class", type("gen/Plain"), false, contents, names);
+                put(zos, "readme.txt", "Hello".getBytes(StandardCharsets.UTF_8), true, contents, names);
+
+                ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                CallSiteManifest.write(Collections.singletonList(
+                        new CallSiteManifest.Entry("gen.Old", Operation.INVOKE_STATIC, "gen.Target", "baz", "()V")), manifest);
+                put(zos, CallSiteManifest.RESOURCE, manifest.toByteArray(), true, contents, names);
+
+                for (int i=0; i<fillers; i++)
+                    put(zos, "data/"+i, new byte[] {(byte)i}, true, contents, names);
+
+                put(zos, VERSIONED, caller("bar"), false, contents, names);
+            }
+        }
+        return names;
+    }
+
+    private static void put(ZipOutputStream zos, String name, byte[] data, boolean stored,
+                            Map<String,byte[]> contents, List<String> names) throws IOException {
+        ZipEntry ze = new ZipEntry(name);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            ze.setMethod(ZipEntry.STORED);
+            ze.setSize(data.length);
+            ze.setCompressedSize(data.length);
+            ze.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(ze);
+        zos.write(data);
+        zos.closeEntry();
+        contents.put(name, data);
+        names.add(name);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len=in.read(buf))>=0)
+            baos.write(buf, 0, len);
+        return baos.toByteArray();
+    }
+
+    private static byte[] type(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_6, ACC_PUBLIC|ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * gen.Caller that calls the given static method of gen.Target.
+     */
+    private static byte[] caller(String method) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC|ACC_SUPER, "gen/Caller", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "call", "()V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, "gen/Target", method, "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
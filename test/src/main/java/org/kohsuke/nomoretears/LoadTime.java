@@ -0,0 +1,214 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * {@link LoadTimeTransformer} transforms a class once and takes it from {@link TransformedClassCache} from then on,
+ * unless the class hierarchy that its frames were computed from has changed. A class that fails to transform
+ * is loaded as it is, and the failure is logged.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class LoadTime extends Assert implements Callable {
+    private static final List<Pattern> TARGETS = Collections.singletonList(Pattern.compile("gen/.*"));
+
+    /**
+     * Serves the class files of gen.A and gen.B, which the {@link TypeHierarchy} of the transformer reads.
+     */
+    static class Loader extends ClassLoader {
+        private final Map<String,byte[]> images = new HashMap<>();
+
+        Loader(boolean bExtendsA) {
+            super(LoadTime.class.getClassLoader());
+            images.put("gen/A.class", type("gen/A", "java/lang/Object"));
+            images.put("gen/B.class", type("gen/B", bExtendsA ? "gen/A" : "java/lang/Object"));
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            byte[] image = images.get(name);
+            return image!=null ? new ByteArrayInputStream(image) : super.getResourceAsStream(name);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        File dir = Files.createTempDirectory("cache").toFile();
+        File report = File.createTempFile("report","txt");
+        try {
+            LinkPolicy policy = new LinkPolicy();
+            Loader loader = new Loader(false);
+            byte[] caller = caller(), plain = type("gen/Plain", "java/lang/Object");
+
+            LoadTimeTransformer first = new LoadTimeTransformer(TARGETS, policy, new TransformedClassCache(dir, policy), true);
+            byte[] transformed = first.transform(loader, "gen/Caller", null, null, caller);
+            assertNotNull(transformed);
+            assertTrue(ClassTransformer.isTransformed(transformed, 0, transformed.length));
+            assertNull(first.transform(loader, "gen/Plain", null, null, plain));
+            assertOutcomes(first, report, "transformed", "unchanged");
+
+            // one entry for each class, and the one left as it is is empty
+            List<File> entries = entries(dir);
+            assertEquals(2, entries.size());
+            assertEquals(1, empty(entries));
+
+            LoadTimeTransformer second = new LoadTimeTransformer(TARGETS, policy, new TransformedClassCache(dir, policy), true);
+            assertArrayEquals(transformed, second.transform(loader, "gen/Caller", null, null, caller));
+            assertNull(second.transform(loader, "gen/Plain", null, null, plain));
+            assertOutcomes(second, report, "cached", "cached");
+            assertEquals(2, entries(dir).size());
+
+            // where the frames of Caller.pick() merge A and B, this class loader has A instead of Object
+            LoadTimeTransformer third = new LoadTimeTransformer(TARGETS, policy, new TransformedClassCache(dir, policy), true);
+            byte[] retransformed = third.transform(new Loader(true), "gen/Caller", null, null, caller);
+            assertNotNull(retransformed);
+            assertFalse(Arrays.equals(transformed, retransformed));
+            assertNull(third.transform(new Loader(true), "gen/Plain", null, null, plain));
+            assertOutcomes(third, report, "transformed", "cached");
+        } finally {
+            for (File f : entries(dir)) {
+                f.delete();
+                f.getParentFile().delete();
+            }
+            dir.delete();
+            report.delete();
+        }
+        failures();
+        return null;
+    }
+
+    /**
+     * The first failure is a warning, and the rest are only logged at FINE.
+     */
+    private void failures() {
+        final List<LogRecord> logged = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord r) {
+                logged.add(r);
+            }
+            @Override public void flush() {}
+            @Override public void close() {}
+        };
+        Logger logger = Logger.getLogger(LoadTimeTransformer.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINE);
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            LoadTimeTransformer t = new LoadTimeTransformer(TARGETS, new LinkPolicy(), null, false);
+            byte[] caller = caller();
+            byte[] broken = Arrays.copyOf(caller, caller.length-4);   // cuts into the code of the last method
+            assertNull(t.transform(new Loader(false), "gen/Caller", null, null, broken));
+            assertNull(t.transform(new Loader(false), "gen/Caller", null, null, broken));
+
+            assertEquals(2, logged.size());
+            assertEquals(Level.WARNING, logged.get(0).getLevel());
+            assertEquals(Level.FINE, logged.get(1).getLevel());
+            for (LogRecord r : logged)
+                assertNotNull(r.getThrown());
+        } finally {
+            logger.removeHandler(handler);
+            logger.setUseParentHandlers(true);
+            logger.setLevel(level);
+        }
+    }
+
+    private void assertOutcomes(LoadTimeTransformer t, File report, String caller, String plain) throws Exception {
+        t.writeReport(report);
+        Map<String,String> outcomes = new HashMap<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(report), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line=r.readLine())!=null) {
+                if (line.startsWith("#"))   continue;
+                String[] tokens = line.split("\t");
+                outcomes.put(tokens[0], tokens[2]);
+            }
+        }
+        assertEquals(caller, outcomes.get("gen.Caller"));
+        assertEquals(plain, outcomes.get("gen.Plain"));
+    }
+
+    private static List<File> entries(File dir) {
+        List<File> r = new ArrayList<>();
+        File[] subdirs = dir.listFiles();
+        if (subdirs!=null) {
+            for (File d : subdirs)
+                r.addAll(Arrays.asList(d.listFiles()));
+        }
+        return r;
+    }
+
+    private static int empty(List<File> entries) {
+        int n = 0;
+        for (File f : entries)
+            if (f.length()==0)
+                n++;
+        return n;
+    }
+
+    private static byte[] type(String name, String superName) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_6, ACC_PUBLIC|ACC_SUPER, name, null, superName, null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * A class without frames that calls gen.Target.foo(), and merges A and B.
+     */
+    private static byte[] caller() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC|ACC_SUPER, "gen/Caller", null, "java/lang/Object", null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "call", "()V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, "gen/Target", "foo", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_STATIC, "pick", "(ZLgen/A;Lgen/B;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label b = new Label(), end = new Label();
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFEQ, b);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(b);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitLabel(end);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link DefaultLinker} tells existing members from missing ones through {@link MemberIndex}.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Members extends Assert implements Callable {
+    interface Named {
+        String name();
+    }
+
+    static class Base implements Named {
+        public int count;
+        public static int total;
+
+        public String name() {
+            return "base";
+        }
+
+        static String describe() {
+            return "described";
+        }
+    }
+
+    static class Derived extends Base {
+        Derived(int x) {}
+    }
+
+    /**
+     * VarHandle, or null before Java 9.
+     */
+    private static Class<?> varHandle() {
+        try {
+            return Class.forName("java.lang.invoke.VarHandle");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        Lookup l = MethodHandles.lookup();
+        DefaultLinker d = new DefaultLinker();
+        MethodType string = MethodType.methodType(String.class);
+
+        // inherited from the superclass and from interfaces, including Object
+        assertNotNull(d.invokeVirtual(l, "name", string, Derived.class));
+        assertNotNull(d.invokeInterface(l, "name", string, Named.class));
+        assertNotNull(d.invokeInterface(l, "toString", string, Named.class));
+        assertNotNull(d.invokeStatic(l, "describe", string, Derived.class));
+        assertNotNull(d.getField(l, "count", int.class, Derived.class));
+        assertNotNull(d.putStatic(l, "total", int.class, Derived.class));
+        assertNotNull(d.invokeConstructor(l, MethodType.methodType(void.class, int.class), Derived.class));
+
+        // missing, or there but static where an instance member is expected and vice versa
+        assertNull(d.invokeVirtual(l, "name", MethodType.methodType(Object.class), Derived.class));
+        assertNull(d.invokeVirtual(l, "describe", string, Derived.class));
+        assertNull(d.invokeStatic(l, "name", string, Derived.class));
+        assertNull(d.getField(l, "total", int.class, Derived.class));
+        assertNull(d.getStatic(l, "count", long.class, Derived.class));
+        assertNull(d.invokeConstructor(l, MethodType.methodType(void.class), Derived.class));
+
+        // signature polymorphic methods, whose declared types don't match the references
+        assertNotNull(d.invokeVirtual(l, "invoke", MethodType.methodType(String.class, int.class), MethodHandle.class));
+        Class<?> varHandle = varHandle();
+        if (varHandle!=null)
+            assertNotNull(d.invokeVirtual(l, "get", MethodType.methodType(String.class, Base.class), varHandle));
+
+        // owner classes resolve to the same class each time
+        assertSame(Derived.class, LinkerBootstrap.resolve(l, Derived.class.getName()));
+        assertSame(Derived.class, LinkerBootstrap.resolve(l, Derived.class.getName()));
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * References to the classes in the same nest are left alone by the default {@link LinkPolicy},
+ * even when no local classes are given, as with the agent. That includes the host's own references
+ * to its anonymous classes, whose <tt>InnerClasses</tt> entries have no outer class, and
+ * the <tt>NestHost</tt>/<tt>NestMembers</tt> of Java 11 class files.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Nestmates extends Assert implements Callable {
+    @Override
+    public Object call() throws Exception {
+        // before Java 11, the nest is worked out from InnerClasses
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC|ACC_SUPER, "gen/Host", null, "java/lang/Object", null);
+        cw.visitInnerClass("gen/Host$1", null, null, 0);
+        cw.visitInnerClass("gen/Host$Inner", "gen/Host", "Inner", ACC_STATIC);
+        code(cw, "gen/Host$1", "gen/Host$Inner");
+        assertSites(cw.toByteArray());
+
+        // from Java 11, the host lists all of its nest
+        cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V11, ACC_PUBLIC|ACC_SUPER, "gen/Host", null, "java/lang/Object", null);
+        cw.visitNestMember("gen/Host$1");
+        cw.visitNestMember("gen/Host$Inner");
+        code(cw, "gen/Host$1", "gen/Host$Inner");
+        assertSites(cw.toByteArray());
+
+        // and the members name the host
+        cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V11, ACC_SUPER, "gen/Host$Inner", null, "java/lang/Object", null);
+        cw.visitNestHost("gen/Host");
+        cw.visitInnerClass("gen/Host$Inner", "gen/Host", "Inner", ACC_STATIC);
+        cw.visitInnerClass("gen/Host$Inner$1Local", null, "Local", 0);
+        code(cw, "gen/Host$Inner$1Local", "gen/Host");
+        assertSites(cw.toByteArray());
+        return null;
+    }
+
+    /**
+     * Transforms the class, and checks that only the reference to <tt>gen.Other</tt> got linked.
+     */
+    private void assertSites(byte[] data) {
+        ClassTransformer ct = new ClassTransformer(new ClassWriter(ClassWriter.COMPUTE_MAXS), new LinkPolicy());
+        ct.transform(new ClassReader(data));
+        Set<String> owners = new TreeSet<>();
+        for (CallSiteManifest.Entry e : ct.getSites())
+            owners.add(e.owner);
+        assertEquals("[gen.Other]", owners.toString());
+    }
+
+    /**
+     * A method that instantiates one class, calls a static method of another, and then of <tt>gen.Other</tt>.
+     */
+    private static void code(ClassWriter cw, String instantiated, String called) {
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "run", "()V", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, instantiated);
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, instantiated, "<init>", "()V", false);
+        mv.visitInsn(POP);
+        mv.visitMethodInsn(INVOKESTATIC, called, "foo", "()V", false);
+        mv.visitMethodInsn(INVOKESTATIC, "gen/Other", "bar", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+    }
+}
@@ -0,0 +1,29 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * References to <tt>java.*</tt> are left as they are.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class PlatformOwners extends Assert implements Callable {
+    @Override
+    public Object call() throws Exception {
+        assertEquals("x1", new StringBuilder("x").append(1).toString());
+        assertEquals(2, new int[2].clone().length);
+
+        boolean found = false;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(CallSiteManifest.RESOURCE)) {
+            for (CallSiteManifest.Entry e : CallSiteManifest.read(in)) {
+                assertFalse(e.toString(), e.owner.startsWith("java."));
+                found |= e.caller.equals(PlatformOwners.class.getName());
+            }
+        }
+        assertTrue(found);  // but the rest is
+        return null;
+    }
+}
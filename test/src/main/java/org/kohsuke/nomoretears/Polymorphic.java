@@ -0,0 +1,72 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link PolymorphicCallSite} links per receiver class, and keeps working past the inline cache depth.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Polymorphic extends Assert implements Callable {
+    public static class Base {
+        public String foo(int i) {
+            return "base"+i;
+        }
+    }
+
+    public static class A extends Base {}
+    public static class B extends Base {}
+    public static class C extends Base {}
+
+    /**
+     * Method that a linker could choose for {@link C} instead of {@link Base#foo(int)}.
+     */
+    public static String fooForC(Base b, int i) {
+        return "c"+i;
+    }
+
+    private static Object invoke(MethodHandle h, Object... args) throws Exception {
+        try {
+            return h.invokeWithArguments(args);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Error(t);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        final List<Class<?>> resolved = new ArrayList<>();
+        final MethodType sig = MethodType.methodType(String.class, int.class);
+
+        PolymorphicCallSite site = new PolymorphicCallSite(Base.class, sig, new PolymorphicCallSite.Resolver() {
+            public MethodHandle resolve(Class<?> receiverClass) throws ReflectiveOperationException {
+                resolved.add(receiverClass);
+                if (receiverClass==C.class)
+                    return MethodHandles.lookup().findStatic(Polymorphic.class, "fooForC", MethodType.methodType(String.class, Base.class, int.class));
+                return MethodHandles.lookup().findVirtual(Base.class, "foo", sig);
+            }
+        }, 2);
+        MethodHandle h = site.dynamicInvoker();
+
+        for (int i=0; i<2; i++) {
+            assertEquals("base1", invoke(h, new A(), 1));
+            assertEquals("base2", invoke(h, new B(), 2));
+            // C is beyond the depth of the inline cache
+            assertEquals("c3", invoke(h, new C(), 3));
+        }
+        assertEquals("base4", invoke(h, new Base(), 4));
+
+        // each receiver class is resolved once
+        assertEquals(4, resolved.size());
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link SiteProfiler} counts the invocations of a call site while it's enabled, and leaves alone those linked
+ * while it's disabled.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Profile extends Assert implements Callable {
+    static class Target {
+        static int one() {
+            return 1;
+        }
+    }
+
+    static class Caller {
+        static int call() {
+            return Target.one();
+        }
+    }
+
+    static class Unprofiled {
+        static int call() {
+            return Target.one();
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        SiteProfiler p = SiteProfiler.get();
+        boolean wasEnabled = p.isEnabled();
+        String key = Caller.class.getName()+"#call invokeStatic "+Target.class.getName()+".one()int";
+        String unprofiled = Unprofiled.class.getName()+"#call invokeStatic "+Target.class.getName()+".one()int";
+        try {
+            p.setEnabled(false);
+            assertEquals(1, Unprofiled.call());
+
+            p.setEnabled(true);
+            for (int i=0; i<10; i++)
+                assertEquals(1, Caller.call());
+            assertEquals(10L, (long)p.getInvocationCounts().get(key));
+
+            // no longer counted
+            p.setEnabled(false);
+            for (int i=0; i<5; i++)
+                assertEquals(1, Caller.call());
+            assertEquals(10L, (long)p.getInvocationCounts().get(key));
+
+            p.setEnabled(true);
+            assertEquals(1, Caller.call());
+            assertEquals(11L, (long)p.getInvocationCounts().get(key));
+            assertEquals(1, Unprofiled.call());
+            assertNull(p.getInvocationCounts().get(unprofiled));
+
+            // some call sites were linked while it was disabled, so it can't tell which ones never ran
+            StringWriter w = new StringWriter();
+            p.writeReport(w, Profile.class.getClassLoader());
+            assertFalse(w.toString().contains("# never executed"));
+        } finally {
+            p.setEnabled(wasEnabled);
+        }
+        return null;
+    }
+}
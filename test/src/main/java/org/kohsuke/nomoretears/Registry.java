@@ -0,0 +1,59 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.SwitchPoint;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Linkers attached to a class loader are inherited by its children but not visible from its parent,
+ * and registering them only discards the links made for the classes that can see them.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Registry extends Assert implements Callable {
+    @Override
+    public Object call() throws Exception {
+        ClassLoader parent = getClass().getClassLoader();
+        ClassLoader child = new URLClassLoader(new URL[0], parent);
+
+        Linker p = new Relink.NoopLinker(Registry.class);
+        Linker c = new Relink.NoopLinker(Registry.class);
+        LinkerRegistry.of(parent).register(p);
+        LinkerRegistry.of(child).register(c);
+        try {
+            List<Linker> linkers = LinkerRegistry.of(child).getEffectiveLinkers();
+            assertTrue(linkers.containsAll(Linker.LINKERS));
+            assertTrue(linkers.indexOf(p)<linkers.indexOf(c));
+
+            assertTrue(LinkerRegistry.of(parent).getEffectiveLinkers().contains(p));
+            assertFalse(LinkerRegistry.of(parent).getEffectiveLinkers().contains(c));
+            assertFalse(Linker.LINKERS.contains(p));
+
+            LinkerRegistry pr = LinkerRegistry.of(parent), cr = LinkerRegistry.of(child);
+            LinkerIndex pi = pr.getIndex();
+            SwitchPoint psp = pr.switchPoint(Registry.class), csp = cr.switchPoint(Registry.class);
+            Linker x = new Relink.NoopLinker(Registry.class);
+            cr.register(x);
+            cr.unregister(x);
+            assertSame(pi, pr.getIndex());
+            assertFalse(psp.hasBeenInvalidated());
+            assertTrue(csp.hasBeenInvalidated());
+
+            LinkerIndex ci = cr.getIndex();
+            csp = cr.switchPoint(Registry.class);
+            pr.register(x);
+            pr.unregister(x);
+            assertNotSame(ci, cr.getIndex());
+            assertTrue(psp.hasBeenInvalidated());
+            assertTrue(csp.hasBeenInvalidated());
+        } finally {
+            LinkerRegistry.of(parent).unregister(p);
+            LinkerRegistry.of(child).unregister(c);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+/**
+ * Call sites are linked again when a linker that claims their owner comes and goes.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Relink extends Assert implements Callable {
+    public static class Greeter {
+        public static String greet() {
+            return "hello";
+        }
+    }
+
+    public static class Caller {
+        public static String greet() {
+            return Greeter.greet();
+        }
+    }
+
+    /**
+     * Linker that links nothing, but claims the given owner.
+     */
+    static class NoopLinker extends Linker {
+        private String scope;
+
+        NoopLinker(Class<?> scope) {
+            this.scope = scope.getName();
+        }
+
+        @Override
+        public Collection<String> getScope() {
+            return Collections.singleton(scope);
+        }
+
+        public CallSite invokeVirtual(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+        public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+        public CallSite invokeInterface(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+        public CallSite invokeSpecial(Lookup caller, String methodName, MethodType signature, Class<?> owner) { return null; }
+        public CallSite invokeConstructor(Lookup caller, MethodType signature, Class<?> owner) { return null; }
+        public CallSite getField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+        public CallSite putField(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+        public CallSite getStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+        public CallSite putStatic(Lookup caller, String fieldName, Class<?> fieldType, Class<?> owner) { return null; }
+    }
+
+    /**
+     * Counts the call sites that get linked while calling {@link Caller#greet()}.
+     */
+    private static long relinks() {
+        long before = LinkCache.getMissCount();
+        assertEquals("hello", Caller.greet());
+        return LinkCache.getMissCount()-before;
+    }
+
+    @Override
+    public Object call() throws Exception {
+        boolean old = LinkerBootstrap.RELINKABLE;
+        LinkerBootstrap.RELINKABLE = true;
+        try {
+            relinks();  // link everything in there first
+            assertEquals(0, relinks());
+
+            // a linker for an unrelated owner leaves the call site alone
+            Linker unrelated = new NoopLinker(String.class);
+            unrelated.register();
+            assertEquals(0, relinks());
+
+            // but the one that claims Greeter gets the call site linked again
+            Linker related = new NoopLinker(Greeter.class);
+            related.register();
+            assertEquals(1, relinks());
+            assertEquals(0, relinks());
+
+            unrelated.unregister();
+            related.unregister();
+        } finally {
+            LinkerBootstrap.RELINKABLE = old;
+        }
+        return null;
+    }
+}
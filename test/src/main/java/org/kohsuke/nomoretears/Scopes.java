@@ -0,0 +1,84 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static org.kohsuke.nomoretears.Operation.*;
+
+/**
+ * Linkers are only consulted for the owners in their scope and the operations they link.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Scopes extends Assert implements Callable {
+    static class Target {
+        static int ping() {
+            return 1;
+        }
+    }
+
+    static class Elsewhere {}
+
+    static class Caller {
+        static int call() {
+            return Target.ping();
+        }
+    }
+
+    /**
+     * Records if it's asked to link a static method, and leaves it to the other linkers.
+     */
+    static class Recording extends Relink.NoopLinker {
+        private final Set<Operation> operations;
+        volatile boolean consulted;
+
+        Recording(Class<?> scope, Set<Operation> operations) {
+            super(scope);
+            this.operations = operations;
+        }
+
+        @Override
+        public Set<Operation> getOperations() {
+            return operations;
+        }
+
+        @Override
+        public CallSite invokeStatic(Lookup caller, String methodName, MethodType signature, Class<?> owner) {
+            consulted = true;
+            return null;
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        Recording elsewhere = new Recording(Elsewhere.class, EnumSet.of(INVOKE_STATIC));
+        Recording getters = new Recording(Target.class, EnumSet.of(GET_STATIC));
+        Recording matching = new Recording(Target.class, EnumSet.of(INVOKE_STATIC));
+        for (Linker l : new Linker[] {elsewhere, getters, matching})
+            LinkerRegistry.global().registerFirst(l);
+        try {
+            List<Linker> candidates = Arrays.asList(LinkerRegistry.forClass(Scopes.class).getIndex().candidates(INVOKE_STATIC, Target.class));
+            assertTrue(candidates.contains(matching));
+            assertFalse(candidates.contains(elsewhere));
+            assertFalse(candidates.contains(getters));
+
+            assertEquals(1, Caller.call());
+            assertTrue(matching.consulted);
+            assertFalse(elsewhere.consulted);
+            assertFalse(getters.consulted);
+        } finally {
+            elsewhere.unregister();
+            getters.unregister();
+            matching.unregister();
+        }
+        return null;
+    }
+}
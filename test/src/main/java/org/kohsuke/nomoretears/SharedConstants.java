@@ -0,0 +1,79 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+
+/**
+ * A static final read by two call sites in the same package, the first of which initializes its class,
+ * ends up linked to its value at both, instead of the second reusing the getter that the first started with.
+ *
+ * <p>
+ * That the call sites don't read the field any more is told by replacing its value behind their back.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class SharedConstants extends Assert implements Callable {
+    public static class Shared {
+        public static final Object VALUE = new Object();
+
+        static {
+            initialized = true;
+        }
+    }
+
+    public static class Before {
+        public static Object read() {
+            return Shared.VALUE;
+        }
+    }
+
+    public static class After {
+        public static Object read() {
+            return Shared.VALUE;
+        }
+    }
+
+    static boolean initialized;
+
+    @Override
+    public Object call() throws Exception {
+        assertFalse(initialized);
+        Object value = Before.read();
+        assertTrue(initialized);
+        assertSame(value, After.read());
+        assertSame(value, Before.read());
+
+        Object unsafe = unsafe();
+        if (unsafe==null)
+            return null;    // static finals are linked to their getters
+
+        replace(unsafe, Shared.class.getField("VALUE"), new Object());
+        assertSame(value, Before.read());
+        assertSame(value, After.read());
+        return null;
+    }
+
+    /**
+     * sun.misc.Unsafe, if {@link DefaultLinker} can tell initialized classes with it.
+     */
+    private static Object unsafe() {
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            c.getMethod("shouldBeInitialized", Class.class);
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return f.get(null);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static void replace(Object unsafe, Field field, Object value) throws Exception {
+        Class<?> c = unsafe.getClass();
+        Object base = c.getMethod("staticFieldBase", Field.class).invoke(unsafe, field);
+        long offset = (Long)c.getMethod("staticFieldOffset", Field.class).invoke(unsafe, field);
+        c.getMethod("putObjectVolatile", Object.class, long.class, Object.class).invoke(unsafe, base, offset, value);
+    }
+}
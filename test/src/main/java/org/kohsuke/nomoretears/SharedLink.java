@@ -0,0 +1,47 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Call sites that make the same reference share the link, but only within the caller class
+ * when the access to the member depends on it.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class SharedLink extends Assert implements Callable {
+    static int twice(int x) {
+        return x*2;
+    }
+
+    static class Target {
+        protected static int thrice(int x) {
+            return x*3;
+        }
+    }
+
+    static class Other {
+        static int call() {
+            return Target.thrice(1);
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        long hits = LinkCache.getHitCount();
+        assertEquals(2, twice(1));
+        assertEquals(4, twice(2));
+        assertTrue(LinkCache.getHitCount()>hits);
+
+        if (!LinkerBootstrap.BATCH) {
+            int a = Target.thrice(1);
+            long misses = LinkCache.getMissCount();
+            int b = Other.call();
+            // one for the call to Other, and another for its call to Target, which doesn't share the link above
+            assertEquals(misses+2, LinkCache.getMissCount());
+            assertEquals(a, b);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,41 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link LinkListener} sees which linker linked a reference.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Stats extends Assert implements Callable {
+    static class Target {
+        static String ping() {
+            return "pong";
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        final List<Linker> winners = new ArrayList<>();
+        LinkListener l = new LinkListener() {
+            public void linked(Class<?> caller, Operation op, Class<?> owner, String name, MethodType type, Linker winner, long nanos) {
+                if (owner==Target.class)
+                    winners.add(winner);
+            }
+        };
+        LinkerStats.addListener(l);
+        try {
+            assertEquals("pong", Target.ping());
+        } finally {
+            LinkerStats.removeListener(l);
+        }
+        assertEquals(1, winners.size());
+        assertTrue(winners.get(0) instanceof DefaultLinker);
+        return null;
+    }
+}
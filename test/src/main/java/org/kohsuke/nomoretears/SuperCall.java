@@ -0,0 +1,34 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Super calls that javac compiles against the direct superclass, which doesn't declare the method.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class SuperCall extends Assert implements Callable {
+    public static class A {
+        public String hi() {
+            return "a";
+        }
+    }
+
+    public static class B extends A {
+    }
+
+    public static class C extends B {
+        @Override
+        public String hi() {
+            return super.hi()+"c";
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        assertEquals("ac", new C().hi());
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+package org.kohsuke.nomoretears;
+
+import org.junit.Assert;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Call sites linked by {@link Warmup} don't run the linkers when they are first executed.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class Warm extends Assert implements Callable {
+    static class Cold {
+        static int run() {
+            return Integer.parseInt("42");
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        assertTrue(Warmup.run(getClass().getClassLoader())>0);
+
+        long misses = LinkCache.getMissCount();
+        assertEquals(42, Cold.run());
+        assertEquals(misses, LinkCache.getMissCount());
+        return null;
+    }
+}
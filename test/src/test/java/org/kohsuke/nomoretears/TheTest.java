@@ -30,4 +30,114 @@ public class TheTest {
     public void testException() throws Exception {
         new ExceptionTest().call();
     }
+
+    @Test
+    public void testSharedLink() throws Exception {
+        new SharedLink().call();
+    }
+
+    @Test
+    public void testConcurrentLink() throws Exception {
+        new ConcurrentLink().call();
+    }
+
+    @Test
+    public void testRelink() throws Exception {
+        new Relink().call();
+    }
+
+    @Test
+    public void testPolymorphic() throws Exception {
+        new Polymorphic().call();
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        new Registry().call();
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        new Stats().call();
+    }
+
+    @Test
+    public void testWarmup() throws Exception {
+        new Warm().call();
+    }
+
+    @Test
+    public void testLinkDecisionCache() throws Exception {
+        new Decisions().call();
+    }
+
+    @Test
+    public void testMemberIndex() throws Exception {
+        new Members().call();
+    }
+
+    @Test
+    public void testAdaptingLinker() throws Exception {
+        new Adapting().call();
+    }
+
+    @Test
+    public void testSuperCall() throws Exception {
+        new SuperCall().call();
+    }
+
+    @Test
+    public void testPlatformOwners() throws Exception {
+        new PlatformOwners().call();
+    }
+
+    @Test
+    public void testDirectLink() throws Exception {
+        new Direct().call();
+    }
+
+    @Test
+    public void testNestmates() throws Exception {
+        new Nestmates().call();
+    }
+
+    @Test
+    public void testStackMapFrames() throws Exception {
+        new Frames().call();
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        new Batch().call();
+    }
+
+    @Test
+    public void testConstants() throws Exception {
+        new Constants().call();
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        new Profile().call();
+    }
+
+    @Test
+    public void testSharedConstants() throws Exception {
+        new SharedConstants().call();
+    }
+
+    @Test
+    public void testLoadTime() throws Exception {
+        new LoadTime().call();
+    }
+
+    @Test
+    public void testJars() throws Exception {
+        new Jars().call();
+    }
+
+    @Test
+    public void testLinkerScopes() throws Exception {
+        new Scopes().call();
+    }
 }
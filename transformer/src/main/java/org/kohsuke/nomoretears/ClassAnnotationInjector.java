@@ -12,7 +12,7 @@ import org.objectweb.asm.Opcodes;
  */
 abstract class ClassAnnotationInjector extends ClassVisitor {
     ClassAnnotationInjector(ClassVisitor cv) {
-        super(Opcodes.ASM4,cv);
+        super(Opcodes.ASM9,cv);
     }
 
     private boolean emitted = false;
@@ -1,27 +1,33 @@
 package org.kohsuke.nomoretears;
 
-import org.kohsuke.nomoretears.asm.Analyzer;
 import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.JSRInlinerAdapter;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
-import org.objectweb.asm.tree.analysis.AnalyzerException;
-import org.objectweb.asm.tree.analysis.Frame;
-import org.objectweb.asm.tree.analysis.SourceValue;
 
 import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static org.objectweb.asm.Opcodes.*;
 import static org.objectweb.asm.Type.*;
@@ -33,58 +39,288 @@ import static org.objectweb.asm.Type.*;
  */
 public class ClassTransformer extends ClassVisitor {
     private String className;
+
+    /**
+     * Invokedynamic call sites that this transformation has produced.
+     */
+    private final List<CallSiteManifest.Entry> sites = new ArrayList<>();
+
+    private final LinkPolicy policy;
+
+    /**
+     * From nested classes to their enclosing classes, as recorded in the class file.
+     */
+    private final Map<String,String> outers = new HashMap<>();
+
+    /**
+     * The <tt>NestHost</tt> of this class, or this class itself if it's the host.
+     * Only meaningful for class files of Java 11 and later.
+     */
+    private String nestHost;
+
+    /**
+     * The <tt>NestMembers</tt> of this class, if it's the host.
+     */
+    private final Set<String> nestMembers = new HashSet<>();
+
+    /**
+     * Major version of the class file before the transformation.
+     */
+    private int version;
+
+    /**
+     * True if the class is annotated with {@link DirectLink}.
+     */
+    private boolean direct;
+
+    /**
+     * Methods, by their name and descriptor, that need the dataflow analysis to pair up <tt>NEW</tt>
+     * with the constructor invocation. Null unless {@link #transform(ClassReader)} has scanned the class,
+     * in which case the other methods are transformed as they are read.
+     */
+    private Set<String> analyzed;
+
     public ClassTransformer(ClassVisitor cv) {
-        super(ASM4, new ClassAnnotationInjectorImpl(cv));
+        this(cv, new LinkPolicy());
+    }
+
+    public ClassTransformer(ClassVisitor cv, LinkPolicy policy) {
+        super(ASM9, new ClassAnnotationInjectorImpl(cv));
+        this.policy = policy;
+    }
+
+    /**
+     * Gets the call sites that this transformation has produced, for {@link CallSiteManifest}.
+     */
+    public List<CallSiteManifest.Entry> getSites() {
+        return Collections.unmodifiableList(sites);
+    }
+
+    /**
+     * Transforms the class read by the given reader.
+     *
+     * <p>
+     * This is faster than <tt>cr.accept(transformer,0)</tt>, which works, too. The class is scanned first
+     * to find the constructors and the methods that instantiate lazily linked classes, and only those
+     * go through the dataflow analysis. The rest of the methods are rewritten in one pass as they are read.
+     */
+    public void transform(ClassReader cr) {
+        analyzed = new HashSet<>();
+        cr.accept(new Scanner(), ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+        cr.accept(this, 0);
+    }
+
+    /**
+     * Tells if {@link #transform(ClassReader)} has run the dataflow analysis on the given method.
+     */
+    boolean isAnalyzed(String name, String desc) {
+        return name.equals("<init>") || analyzed!=null && analyzed.contains(name+desc);
+    }
+
+    /**
+     * Creates the invokedynamic instruction that replaces a method/field instruction, and records the call site.
+     */
+    private InvokeDynamicInsnNode invokeDynamic(String name, String desc, Handle bootstrap, Type owner) {
+        recordSite(name, desc, bootstrap, owner);
+        return new InvokeDynamicInsnNode(name, desc, bootstrap, owner.getClassName());
+    }
+
+    private void recordSite(String name, String desc, Handle bootstrap, Type owner) {
+        sites.add(new CallSiteManifest.Entry(Type.getObjectType(className).getClassName(),
+                Operation.fromBootstrapName(bootstrap.getName()), owner.getClassName(), name, desc));
+    }
+
+    /**
+     * Gets the descriptor of the invokedynamic call site that replaces a field instruction.
+     */
+    private static String fieldAccessDescriptor(int op, Type o, Type t) {
+        switch (op) {
+        case GETFIELD:
+            return Type.getMethodDescriptor(t,o);
+        case PUTFIELD:
+            return Type.getMethodDescriptor(VOID_TYPE,o,t);
+        case GETSTATIC:
+            return Type.getMethodDescriptor(t);
+        case PUTSTATIC:
+            return Type.getMethodDescriptor(VOID_TYPE, t);
+        default:
+            throw new IllegalArgumentException("Unexpected opcode: "+op);
+        }
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-        className = name;
-        version = Math.min(version,51); // we'll be adding invokeDynamic, so minimum Java7 is required
+        start(version, name);
+        if (this.version<V1_7)
+            version = V1_7; // we'll be adding invokeDynamic, so minimum Java7 is required
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
+    @Override
+    public void visitNestHost(String nestHost) {
+        this.nestHost = nestHost;
+        super.visitNestHost(nestHost);
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+        nestMembers.add(nestMember);
+        super.visitNestMember(nestMember);
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String desc) {
+        outers.put(className, owner);
+        super.visitOuterClass(owner, name, desc);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        innerClass(name, outerName);
+        super.visitInnerClass(name, outerName, innerName, access);
+    }
+
+    private void start(int version, String name) {
+        className = nestHost = name;
+        this.version = version&0xFFFF;  // the upper half is the minor version
+    }
+
+    /**
+     * Records an <tt>InnerClasses</tt> entry. Anonymous and local classes have no outer class there,
+     * but the only class that lists them, besides themselves, is the one whose code declares them.
+     */
+    private void innerClass(String name, String outerName) {
+        if (outerName!=null)
+            outers.put(name, outerName);
+        else if (!name.equals(className))
+            outers.put(name, className);
+    }
+
+    /**
+     * Gets the top-level class that the given class is nested in.
+     */
+    private String hostOf(String c) {
+        String o;
+        while ((o=outers.get(c))!=null)
+            c = o;
+        return c;
+    }
+
+    /**
+     * Is the given class in the same nest as this class?
+     *
+     * <p>
+     * Class files of Java 11 and later name the nest exactly. For older ones, it's worked out from
+     * <tt>InnerClasses</tt> and <tt>EnclosingMethod</tt>.
+     */
+    private boolean isNestmate(String owner) {
+        if (owner.equals(className))
+            return true;
+        if (version>=V11) {
+            if (owner.equals(nestHost) || nestMembers.contains(owner))
+                return true;
+            if (nestHost.equals(className))
+                return false;   // the host lists all the members
+            return hostOf(owner).equals(nestHost);
+        }
+        return hostOf(owner).equals(hostOf(className));
+    }
+
+    /**
+     * Should the reference to the given owner be turned into invokedynamic?
+     */
+    private boolean isLinked(Operation op, String owner) {
+        if (owner.charAt(0)=='[')
+            return false;   // methods of arrays, like clone(), which are of java.lang.Object
+        return policy.isLinked(op, owner, isNestmate(owner));
+    }
+
     @Override
     public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
         if (desc.equals(TRANSFORMED))
             throw new AlreadyUpToDate();    // no need to process this class
+        if (desc.equals(DIRECT))
+            direct = true;
         return super.visitAnnotation(desc, visible);
     }
 
+    /**
+     * Lists the references of the call sites in {@link CallSiteTable}, now that all the methods have been seen.
+     */
+    @Override
+    public void visitEnd() {
+        if (policy.isCallSiteTable() && !sites.isEmpty()) {
+            Set<CallSiteManifest.Entry> table = new TreeSet<>(sites);
+            // arrays are written to the class file as they are visited, so they can't be interleaved
+            AnnotationVisitor av = super.visitAnnotation(TABLE, true);
+            AnnotationVisitor a = av.visitArray("operations");
+            for (CallSiteManifest.Entry e : table)
+                a.visit(null, e.operation.getBootstrapName());
+            a.visitEnd();
+            a = av.visitArray("owners");
+            for (CallSiteManifest.Entry e : table)
+                a.visit(null, e.owner);
+            a.visitEnd();
+            a = av.visitArray("names");
+            for (CallSiteManifest.Entry e : table)
+                a.visit(null, e.name);
+            a.visitEnd();
+            a = av.visitArray("descriptors");
+            for (CallSiteManifest.Entry e : table)
+                a.visit(null, e.descriptor);
+            a.visitEnd();
+            av.visitEnd();
+        }
+        super.visitEnd();
+    }
+
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-        return new MethodNode(ASM4, access, name, desc, signature, exceptions) {
+        MethodVisitor mv = transformMethod(access, name, desc, signature, exceptions);
+        if (version<V1_7)
+            // JSR/RET are not allowed in the upgraded class file, and frames can't be computed with them
+            mv = new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions);
+        return mv;
+    }
+
+    private MethodVisitor transformMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (direct)
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        if (analyzed!=null && !name.equals("<init>") && !analyzed.contains(name+desc))
+            return new StreamingMethodTransformer(super.visitMethod(access, name, desc, signature, exceptions), name);
+
+        return new MethodNode(ASM9, access, name, desc, signature, exceptions) {
             @Override
             public void visitEnd() {
                 super.visitEnd();
 
+                if (hasAnnotation(visibleAnnotations, DIRECT)) {
+                    this.accept(ClassTransformer.super.visitMethod(access, name, desc, signature, exceptions.toArray(new String[0])));
+                    return;
+                }
+
                 final boolean inConstructor = name.equals("<init>");
+                // final fields are assigned in initializers, and those assignments can't be linked lazily
+                final boolean inInitializer = inConstructor || name.equals("<clinit>");
                 // set to true when we invoke the super constructor
                 // beyond that point, all the method/field instructions can be rewritten
                 boolean initializedThis = false;
 
                 try {
-                    Analyzer<SourceValue> a = new Analyzer<SourceValue>(new DataflowInterpreter()) {
-                        @Override
-                        protected SourceValue newThisValue(Type ctype) {
-                            return new SourceValue(1,IMPLICIT_THIS);
-                        }
-                    };
-                    Frame<SourceValue>[] frames = a.analyze(className, this);
+                    InitializationAnalyzer a = new InitializationAnalyzer(this, inConstructor);
 
                     int fidx=0;
                     ListIterator <AbstractInsnNode> itr = this.instructions.iterator();
                     while (itr.hasNext()) {
                         AbstractInsnNode insn =  itr.next();
-                        Frame<SourceValue> f = frames[fidx++];
+                        int idx = fidx++;
                         int op = insn.getOpcode();
 
                         if (insn.getType()==AbstractInsnNode.METHOD_INSN) {
                             MethodInsnNode m = (MethodInsnNode) insn;
 
                             if (inConstructor && op ==INVOKESPECIAL && m.name.equals("<init>")) {
-                                SourceValue v = getArgumentValue(f, m, -1);
-                                if (v.insns.contains(IMPLICIT_THIS)) {
+                                if (a.isThis(idx)) {
                                     // super/this constructor call. cannot rewrite this, but this lifts the rewrite restrictions
                                     initializedThis = true;
                                     continue;
@@ -93,30 +329,33 @@ public class ClassTransformer extends ClassVisitor {
 
                             String d = m.desc;
                             Handle handle = LINK_METHODS.get(op);
-                            if (handle==null) {
+                            Operation kind = op==INVOKESPECIAL && m.name.equals("<init>") ? Operation.INVOKE_CONSTRUCTOR
+                                    : handle!=null ? Operation.fromBootstrapName(handle.getName()) : null;
+                            if (handle==null || !isLinked(kind, m.owner)) {
                                 // leave this instruction as is
                             } else {
                                 Type o = Type.getObjectType(m.owner);
 
                                 // intercept constructor call requires getting rid of NEW
                                 if (op==INVOKESPECIAL && m.name.equals("<init>")) {
-                                    SourceValue lhs = getArgumentValue(f, m, -1);
-                                    if (lhs.insns.size() != 1) {
+                                    if (!a.isReachable(idx))
+                                        continue;   // dead code
+                                    int lhs = a.sourceOf(idx);
+                                    if (lhs==InitializationAnalyzer.AMBIGUOUS) {
                                         throw new UnsupportedOperationException("constructor invocation with non-deterministic LHS: "+className+"#"+this.name+this.desc);
                                     }
-                                    AbstractInsnNode source = lhs.insns.iterator().next();
-                                    if (source.getOpcode()!=NEW) {
+                                    if (lhs==InitializationAnalyzer.NOT_NEW) {
                                         throw new UnsupportedOperationException("constructor invocation but LHS isn't from NEW"+className+"#"+this.name+this.desc);
                                     }
+                                    AbstractInsnNode source = a.getInstruction(lhs);
 
                                     // in the signature of <init>, the object to be initialized is in the first argument.
                                     // we change that to the return type.
                                     d = d.substring(0,d.lastIndexOf(')'))+')'+o.getDescriptor();
                                     // JVM doesn't seem to like the name '<init>', so we change it to another name.
-                                    InvokeDynamicInsnNode inv = new InvokeDynamicInsnNode("init", d, CONSTRUCTOR_LINKER, o.getClassName());
+                                    InvokeDynamicInsnNode inv = invokeDynamic("init", d, CONSTRUCTOR_LINKER, o);
 
-                                    SourceValue top = getArgumentValue(f, m, -2);
-                                    if (top==null) {
+                                    if (!a.hasValueBelowReceiver(idx)) {
                                         // NEW INVOKESPECIAL -> INVOKEDYNAMIC POP
                                         instructions.remove(source);
                                         this.instructions.set(m, inv);
@@ -138,63 +377,146 @@ public class ClassTransformer extends ClassVisitor {
                                         d = "("+o+d.substring(1);
                                     }
 
-                                    this.instructions.set(m, new InvokeDynamicInsnNode(m.name, d, handle, o.getClassName()));
+                                    this.instructions.set(m, invokeDynamic(m.name, d, handle, o));
                                 }
                             }
                         }
                         if (insn.getType()==AbstractInsnNode.FIELD_INSN) {
                             FieldInsnNode fi = (FieldInsnNode) insn;
+                            Handle handle = LINK_METHODS.get(op);
+                            if (!isLinked(Operation.fromBootstrapName(handle.getName()), fi.owner))
+                                continue;
+                            if (inInitializer && (op==PUTFIELD || op==PUTSTATIC) && fi.owner.equals(className))
+                                continue;
+                            if (op==PUTFIELD && inConstructor && !initializedThis && a.isThis(idx))
+                                continue;   // can't rewrite field access before we initialize the 'this' object
                             Type o = Type.getObjectType(fi.owner);
-                            Type t = Type.getType(fi.desc);
-                            String desc;
-
-                            switch (op) {
-                            case GETFIELD:
-                                desc = Type.getMethodDescriptor(t,o);
-                                break;
-                            case PUTFIELD:
-                                if (inConstructor && !initializedThis && f.getStack(f.getStackSize()-2).insns.contains(IMPLICIT_THIS)) {
-                                    continue;   // can't rewrite field access before we initialize the 'this' object
-                                }
-                                desc = Type.getMethodDescriptor(VOID_TYPE,o,t);
-                                break;
-                            case GETSTATIC:
-                                desc = Type.getMethodDescriptor(t);
-                                break;
-                            case PUTSTATIC:
-                                desc = Type.getMethodDescriptor(VOID_TYPE, t);
-                                break;
-                            default:
-                                throw new IllegalArgumentException("Unexpected opcode: "+op);
-                            }
+                            String desc = fieldAccessDescriptor(op, o, Type.getType(fi.desc));
 
-                            Handle handle = LINK_METHODS.get(op);
-                            this.instructions.set(fi, new InvokeDynamicInsnNode(fi.name, desc, handle, o.getClassName()));
+                            this.instructions.set(fi, invokeDynamic(fi.name, desc, handle, o));
                         }
                     }
 
                     // write out this method
                     this.accept(ClassTransformer.super.visitMethod(access, name, desc, signature, exceptions.toArray(new String[0])));
-                } catch (AnalyzerException e) {
+                } catch (InitializationAnalyzer.InvalidBytecodeException e) {
                     throw new Error("Failed to analyze "+className+"#"+name+desc,e);
                 }
             }
 
-            /**
-             * Gets the {@link SourceValue} on the stack that corresponds to i-th argument.
-             * For non-static method, the 'this' reference counts as -1.
-             */
-            private SourceValue getArgumentValue(Frame<SourceValue> f, MethodInsnNode m, int i) {
-                Type[] args = Type.getArgumentTypes(m.desc);
-                int pos = f.getStackSize() - args.length + i;
-                if (pos>=0)
-                    return f.getStack(pos);
-                else
-                    return null;
-            }
         };
     }
 
+    /**
+     * Finds the methods that need the dataflow analysis, ahead of the actual transformation.
+     */
+    private final class Scanner extends ClassVisitor {
+        Scanner() {
+            super(ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            start(version, name);
+        }
+
+        @Override
+        public void visitNestHost(String nestHost) {
+            ClassTransformer.this.nestHost = nestHost;
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            nestMembers.add(nestMember);
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String desc) {
+            outers.put(className, owner);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            innerClass(name, outerName);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if (desc.equals(TRANSFORMED))
+                throw new AlreadyUpToDate();
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, final String name, final String desc, String signature, String[] exceptions) {
+            if (name.equals("<init>"))
+                return null;    // always analyzed
+            return new MethodVisitor(ASM9) {
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    if (opcode==NEW && isLinked(Operation.INVOKE_CONSTRUCTOR, type))
+                        analyzed.add(name+desc);
+                }
+            };
+        }
+    }
+
+    /**
+     * Rewrites the method/field instructions of a method as they are read, for methods that
+     * neither are constructors nor instantiate lazily linked classes.
+     */
+    private final class StreamingMethodTransformer extends MethodVisitor {
+        /**
+         * Final fields are assigned in initializers, and those assignments can't be linked lazily.
+         */
+        private final boolean inInitializer;
+        private boolean direct;
+
+        StreamingMethodTransformer(MethodVisitor mv, String name) {
+            super(ASM9, mv);
+            this.inInitializer = name.equals("<clinit>");
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if (visible && desc.equals(DIRECT))
+                direct = true;
+            return super.visitAnnotation(desc, visible);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            Handle handle = LINK_METHODS.get(opcode);
+            // constructor invocations are only paired with NEW here, which the scan found not to be linked
+            if (direct || handle==null || name.equals("<init>")
+             || !isLinked(Operation.fromBootstrapName(handle.getName()), owner)) {
+                super.visitMethodInsn(opcode, owner, name, desc, itf);
+                return;
+            }
+
+            Type o = Type.getObjectType(owner);
+            if (opcode!=INVOKESTATIC)
+                desc = "("+o+desc.substring(1);
+            recordSite(name, desc, handle, o);
+            super.visitInvokeDynamicInsn(name, desc, handle, o.getClassName());
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            Handle handle = LINK_METHODS.get(opcode);
+            if (direct || !isLinked(Operation.fromBootstrapName(handle.getName()), owner)
+             || inInitializer && (opcode==PUTFIELD || opcode==PUTSTATIC) && owner.equals(className)) {
+                super.visitFieldInsn(opcode, owner, name, desc);
+                return;
+            }
+
+            Type o = Type.getObjectType(owner);
+            String d = fieldAccessDescriptor(opcode, o, Type.getType(desc));
+            recordSite(name, d, handle, o);
+            super.visitInvokeDynamicInsn(name, d, handle, o.getClassName());
+        }
+    }
+
     static class ClassAnnotationInjectorImpl extends ClassAnnotationInjector {
         ClassAnnotationInjectorImpl(ClassVisitor cv) {
             super(cv);
@@ -207,19 +529,151 @@ public class ClassTransformer extends ClassVisitor {
         }
     }
 
-    private static final String TRANSFORMED = Type.getDescriptor(LazilyLinked.class);
+    /**
+     * Checks if the class file has been transformed already, by looking for {@link LazilyLinked}
+     * in its constant pool without parsing the rest of it.
+     *
+     * <p>
+     * This can report a false positive if the class merely refers to the annotation type, which
+     * none of the classes that are subject to the transformation do.
+     */
+    public static boolean isTransformed(byte[] image, int off, int len) {
+        byte[] marker = TRANSFORMED_UTF8;
+        int end = off+len;
+        int count = readUnsignedShort(image, off+8);
+        int i = off+10;
+        for (int n=1; n<count && i<end; n++) {
+            switch (image[i]) {
+            case 1: // Utf8
+                int l = readUnsignedShort(image, i+1);
+                if (l==marker.length && regionMatches(image, i+3, marker))
+                    return true;
+                i += 3+l;
+                break;
+            case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // 4-byte entries
+                i += 5;
+                break;
+            case 5: case 6: // long and double take up two slots
+                i += 9;
+                n++;
+                break;
+            case 15: // MethodHandle
+                i += 4;
+                break;
+            case 7: case 8: case 16: case 19: case 20: // 2-byte entries
+                i += 3;
+                break;
+            default:
+                return false;   // not a class file we understand. let the full parse deal with it
+            }
+        }
+        return false;
+    }
 
     /**
-     * Used to track the uninitialized 'this' value set to the local variable #0 of the constructor call.
+     * Checks if the class file refers to any field or method that the policy could have linked lazily,
+     * by looking at its constant pool without parsing the rest of it. If not, transforming it
+     * would find no call site, and it can be left as it is.
      */
-    private static final AbstractInsnNode IMPLICIT_THIS = new ImplicitThisInsnNode();
+    public static boolean mayLink(byte[] image, int off, int len, LinkPolicy policy) {
+        int end = off+len;
+        int count = readUnsignedShort(image, off+8);
+        int[] offsets = new int[count];
+        int i = off+10;
+        for (int n=1; n<count; n++) {
+            if (i>=end)
+                return true;    // truncated. let the full parse deal with it
+            offsets[n] = i;
+            switch (image[i]) {
+            case 1: // Utf8
+                i += 3+readUnsignedShort(image, i+1);
+                break;
+            case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // 4-byte entries
+                i += 5;
+                break;
+            case 5: case 6: // long and double take up two slots
+                i += 9;
+                n++;
+                break;
+            case 15: // MethodHandle
+                i += 4;
+                break;
+            case 7: case 8: case 16: case 19: case 20: // 2-byte entries
+                i += 3;
+                break;
+            default:
+                return true;
+            }
+        }
+
+        boolean[] checked = new boolean[count];
+        for (int n=1; n<count; n++) {
+            int tag = offsets[n]==0 ? 0 : image[offsets[n]];
+            if (tag!=9 && tag!=10 && tag!=11)   // Fieldref, Methodref, InterfaceMethodref
+                continue;
+            int c = readUnsignedShort(image, offsets[n]+1);
+            if (checked[c])
+                continue;
+            checked[c] = true;
 
-    private static final class ImplicitThisInsnNode extends InsnNode {
-        private ImplicitThisInsnNode() {
-            super(-1);
+            int u = offsets[readUnsignedShort(image, offsets[c]+1)];
+            String owner = readUTF(image, u+3, readUnsignedShort(image, u+1));
+            if (owner.charAt(0)=='[')
+                continue;
+            for (Operation op : Operation.values())
+                if (policy.isLinked(op, owner, false))
+                    return true;
         }
+        return false;
+    }
+
+    /**
+     * Decodes the modified UTF-8 of the class file.
+     */
+    private static String readUTF(byte[] b, int i, int len) {
+        char[] buf = new char[len];
+        int n = 0;
+        for (int end=i+len; i<end; ) {
+            int c = b[i++]&0xFF;
+            if (c<0x80) {
+                buf[n++] = (char)c;
+            } else if (c<0xE0) {
+                buf[n++] = (char)(((c&0x1F)<<6) | (b[i++]&0x3F));
+            } else {
+                buf[n++] = (char)(((c&0x0F)<<12) | ((b[i++]&0x3F)<<6) | (b[i++]&0x3F));
+            }
+        }
+        return new String(buf, 0, n);
+    }
+
+    private static int readUnsignedShort(byte[] b, int i) {
+        return ((b[i]&0xFF)<<8) | (b[i+1]&0xFF);
     }
 
+    private static boolean regionMatches(byte[] b, int i, byte[] marker) {
+        for (int j=0; j<marker.length; j++)
+            if (b[i+j]!=marker[j])
+                return false;
+        return true;
+    }
+
+    private static boolean hasAnnotation(List<AnnotationNode> annotations, String desc) {
+        if (annotations!=null) {
+            for (AnnotationNode a : annotations)
+                if (a.desc.equals(desc))
+                    return true;
+        }
+        return false;
+    }
+
+    private static final String TRANSFORMED = Type.getDescriptor(LazilyLinked.class);
+
+    private static final byte[] TRANSFORMED_UTF8 = TRANSFORMED.getBytes(StandardCharsets.UTF_8);
+
+    private static final String DIRECT = Type.getDescriptor(DirectLink.class);
+
+    private static final String TABLE = Type.getDescriptor(CallSiteTable.class);
+
     /**
      * From opcode to the bootstrap method of invokeDynamic.
      */
@@ -235,15 +689,15 @@ public class ClassTransformer extends ClassVisitor {
                 Lookup.class, String.class, MethodType.class, String.class).toMethodDescriptorString();
         String linkerName = Type.getInternalName(LinkerBootstrap.class);
 
-        CONSTRUCTOR_LINKER = new Handle(H_INVOKESTATIC, linkerName, "invokeConstructor", sig);
+        CONSTRUCTOR_LINKER = new Handle(H_INVOKESTATIC, linkerName, "invokeConstructor", sig, false);
 
-        LINK_METHODS.put(INVOKEVIRTUAL,     new Handle(H_INVOKESTATIC, linkerName, "invokeVirtual", sig));
-        LINK_METHODS.put(INVOKESPECIAL,     new Handle(H_INVOKESTATIC, linkerName, "invokeSpecial", sig));
-        LINK_METHODS.put(INVOKESTATIC,      new Handle(H_INVOKESTATIC, linkerName, "invokeStatic", sig));
-        LINK_METHODS.put(INVOKEINTERFACE,   new Handle(H_INVOKESTATIC, linkerName, "invokeInterface", sig));
-        LINK_METHODS.put(GETSTATIC,         new Handle(H_INVOKESTATIC, linkerName, "getStatic", sig));
-        LINK_METHODS.put(PUTSTATIC,         new Handle(H_INVOKESTATIC, linkerName, "putStatic", sig));
-        LINK_METHODS.put(GETFIELD,          new Handle(H_INVOKESTATIC, linkerName, "getField", sig));
-        LINK_METHODS.put(PUTFIELD,          new Handle(H_INVOKESTATIC, linkerName, "putField", sig));
+        LINK_METHODS.put(INVOKEVIRTUAL,     new Handle(H_INVOKESTATIC, linkerName, "invokeVirtual", sig, false));
+        LINK_METHODS.put(INVOKESPECIAL,     new Handle(H_INVOKESTATIC, linkerName, "invokeSpecial", sig, false));
+        LINK_METHODS.put(INVOKESTATIC,      new Handle(H_INVOKESTATIC, linkerName, "invokeStatic", sig, false));
+        LINK_METHODS.put(INVOKEINTERFACE,   new Handle(H_INVOKESTATIC, linkerName, "invokeInterface", sig, false));
+        LINK_METHODS.put(GETSTATIC,         new Handle(H_INVOKESTATIC, linkerName, "getStatic", sig, false));
+        LINK_METHODS.put(PUTSTATIC,         new Handle(H_INVOKESTATIC, linkerName, "putStatic", sig, false));
+        LINK_METHODS.put(GETFIELD,          new Handle(H_INVOKESTATIC, linkerName, "getField", sig, false));
+        LINK_METHODS.put(PUTFIELD,          new Handle(H_INVOKESTATIC, linkerName, "putField", sig, false));
     }
 }
@@ -0,0 +1,497 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Arrays;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Finds out where the objects that constructors are invoked on come from, which is all that
+ * {@link ClassTransformer} needs to pair <tt>NEW</tt> with the constructor invocation, and to find
+ * the implicit 'this' of a constructor.
+ *
+ * <p>
+ * Each local variable and stack slot is modeled as one int, made of a couple of flags and the index of
+ * the <tt>NEW</tt> instruction that the value comes from, instead of a set of source instructions.
+ * References are followed through loads, stores, and the <tt>DUP</tt>/<tt>SWAP</tt> instructions, and
+ * everything else produces an unrelated value. States are kept only at the start of the basic blocks,
+ * and since merging only ever adds sources, each block is walked a small number of times.
+ *
+ * <p>
+ * Subroutines are approximated by treating <tt>JSR</tt> as a branch that also falls through.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class InitializationAnalyzer {
+    /**
+     * The value might be the implicit 'this' of the constructor.
+     */
+    private static final int THIS = 1;
+    /**
+     * The value might come from something other than 'this' or <tt>NEW</tt>.
+     */
+    private static final int OTHER = 2;
+    /**
+     * The upper bits hold the index of the <tt>NEW</tt> instruction plus one, or this if there are several.
+     */
+    private static final int MANY = (1<<29)-1;
+
+    /**
+     * Recorded for the instructions that are never reached.
+     */
+    private static final int UNREACHABLE = -1;
+    /**
+     * Recorded when there's nothing on the stack below the receiver.
+     */
+    private static final int NONE = -2;
+
+    /**
+     * Returned from {@link #sourceOf(int)}.
+     */
+    static final int NOT_NEW = -1, AMBIGUOUS = -2;
+
+    /**
+     * How many words the instructions of a simple stack effect pop and push, two digits per opcode.
+     * ".." for those that are handled individually.
+     */
+    private static final String EFFECTS =
+            "000101010101010101020201010102020101...."+ // 0
+            "..01020102.............................."+ // 20
+            "............2122212221212121............"+ // 40
+            "......................................30"+ // 60
+            "403040303030301020..............21422142"+ // 80
+            "2142214221422142214221422142214211221122"+ // 100
+            "213221322132214221422142..12111221212211"+ // 120
+            "1212212221111111412121414110101010101020"+ // 140
+            "2020202020202000....1010102010201000...."+ // 160
+            "................1111111011111010....1010";  // 180
+
+    private final MethodNode method;
+    private final AbstractInsnNode[] insns;
+    private final int maxLocals;
+    /**
+     * Size of a state, which is the local variables, the stack, then the height of the stack.
+     */
+    private final int size;
+
+    /**
+     * States at the start of the basic blocks, indexed by the instruction. Null elsewhere.
+     */
+    private final int[][] entries;
+    private final boolean[] leaders;
+
+    /**
+     * Instruction ranges of the exception handlers, and the index of the handlers.
+     */
+    private final int[] tryStart, tryEnd, handler;
+
+    /**
+     * For each instruction, the exception handlers whose ranges cover it, as indices into {@link #handler}.
+     * Instructions between the same boundaries of the ranges share the array.
+     */
+    private final int[][] covering;
+
+    /**
+     * For <tt>INVOKESPECIAL</tt> and <tt>PUTFIELD</tt>, the receiver and the value below it on the stack.
+     */
+    private final int[] receivers, belows;
+
+    private final int[] worklist;
+    private int worklistSize;
+    private final boolean[] queued;
+
+    /**
+     * @param constructor
+     *      True if the local variable #0 is the uninitialized 'this'.
+     */
+    InitializationAnalyzer(MethodNode method, boolean constructor) throws InvalidBytecodeException {
+        this.method = method;
+        this.insns = method.instructions.toArray();
+        this.maxLocals = method.maxLocals;
+        this.size = method.maxLocals+method.maxStack+1;
+
+        int n = insns.length;
+        entries = new int[n][];
+        leaders = new boolean[n];
+        receivers = new int[n];
+        belows = new int[n];
+        Arrays.fill(receivers, UNREACHABLE);
+        worklist = new int[n];
+        queued = new boolean[n];
+
+        int h = method.tryCatchBlocks.size();
+        tryStart = new int[h];
+        tryEnd = new int[h];
+        handler = new int[h];
+        for (int i=0; i<h; i++) {
+            TryCatchBlockNode tcb = method.tryCatchBlocks.get(i);
+            tryStart[i] = indexOf(tcb.start);
+            tryEnd[i] = indexOf(tcb.end);
+            handler[i] = leader(tcb.handler);
+        }
+        covering = covering(n);
+        for (AbstractInsnNode insn : insns) {
+            if (insn instanceof JumpInsnNode) {
+                leader(((JumpInsnNode)insn).label);
+            } else
+            if (insn instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode s = (TableSwitchInsnNode) insn;
+                leader(s.dflt);
+                for (LabelNode l : s.labels)
+                    leader(l);
+            } else
+            if (insn instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode s = (LookupSwitchInsnNode) insn;
+                leader(s.dflt);
+                for (LabelNode l : s.labels)
+                    leader(l);
+            }
+        }
+
+        if (n==0)   return;
+
+        int[] init = new int[size];
+        if ((method.access&ACC_STATIC)==0 && constructor)
+            init[0] = THIS;
+        leaders[0] = true;
+        merge(0, init);
+
+        int[] s = new int[size];
+        int[] scratch = new int[size];
+        while (worklistSize>0) {
+            int b = worklist[--worklistSize];
+            queued[b] = false;
+            System.arraycopy(entries[b],0,s,0,size);
+            for (int i=b; ; ) {
+                for (int j : covering[i]) {
+                    System.arraycopy(s,0,scratch,0,maxLocals);
+                    scratch[maxLocals] = OTHER;
+                    scratch[size-1] = 1;
+                    merge(handler[j], scratch);
+                }
+                i = execute(i, s);
+                if (i<0 || i>=n)
+                    break;
+                if (leaders[i]) {
+                    merge(i, s);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes {@link #covering}, only looking at the handlers again where a range starts or ends.
+     */
+    private int[][] covering(int n) {
+        boolean[] boundaries = new boolean[n+1];
+        for (int j=0; j<handler.length; j++) {
+            boundaries[tryStart[j]] = true;
+            boundaries[tryEnd[j]] = true;
+        }
+        int[][] r = new int[n][];
+        int[] current = new int[0];
+        int[] buf = new int[handler.length];
+        for (int i=0; i<n; i++) {
+            if (boundaries[i]) {
+                int len = 0;
+                for (int j=0; j<handler.length; j++)
+                    if (tryStart[j]<=i && i<tryEnd[j])
+                        buf[len++] = j;
+                current = Arrays.copyOf(buf, len);
+            }
+            r[i] = current;
+        }
+        return r;
+    }
+
+    private int indexOf(AbstractInsnNode insn) {
+        return method.instructions.indexOf(insn);
+    }
+
+    private int leader(LabelNode l) {
+        int i = indexOf(l);
+        leaders[i] = true;
+        return i;
+    }
+
+    /**
+     * Merges the state into the start of a basic block, and schedules the block to be walked if that changed it.
+     */
+    private void merge(int i, int[] s) throws InvalidBytecodeException {
+        int[] e = entries[i];
+        boolean changed = false;
+        if (e==null) {
+            entries[i] = s.clone();
+            changed = true;
+        } else {
+            if (e[size-1]!=s[size-1])
+                throw new InvalidBytecodeException(insns[i], "Incompatible stack heights");
+            int height = maxLocals+s[size-1];
+            for (int j=0; j<height; j++) {
+                int v = merge(e[j],s[j]);
+                if (v!=e[j]) {
+                    e[j] = v;
+                    changed = true;
+                }
+            }
+        }
+        if (changed && !queued[i]) {
+            queued[i] = true;
+            worklist[worklistSize++] = i;
+        }
+    }
+
+    private static int merge(int a, int b) {
+        if (a==b)   return a;
+        int ra = a>>>2, rb = b>>>2;
+        int ref = ra==0 ? rb : rb==0 || ra==rb ? ra : MANY;
+        return ref<<2 | (a|b)&(THIS|OTHER);
+    }
+
+    /**
+     * Runs the instruction on the state.
+     *
+     * @return
+     *      index of the next instruction, or -1 if the control doesn't fall through.
+     */
+    private int execute(int i, int[] s) throws InvalidBytecodeException {
+        AbstractInsnNode insn = insns[i];
+        int op = insn.getOpcode();
+        if (op<0)
+            return i+1;     // labels, line numbers, and frames
+
+        switch (op) {
+        case LDC:
+            Object cst = ((LdcInsnNode)insn).cst;
+            push(s, OTHER, cst instanceof Long || cst instanceof Double ? 2 : 1);
+            break;
+        case ALOAD:
+            push(s, s[((VarInsnNode)insn).var]);
+            break;
+        case ISTORE: case FSTORE:
+            pop(s, 1);
+            s[((VarInsnNode)insn).var] = OTHER;
+            break;
+        case LSTORE: case DSTORE:
+            pop(s, 2);
+            s[((VarInsnNode)insn).var] = OTHER;
+            s[((VarInsnNode)insn).var+1] = OTHER;
+            break;
+        case ASTORE:
+            s[((VarInsnNode)insn).var] = pop(s);
+            break;
+        case IINC:
+            break;
+        case DUP: {
+            int a = pop(s);
+            push(s,a); push(s,a);
+            break;
+        }
+        case DUP_X1: {
+            int a = pop(s), b = pop(s);
+            push(s,a); push(s,b); push(s,a);
+            break;
+        }
+        case DUP_X2: {
+            int a = pop(s), b = pop(s), c = pop(s);
+            push(s,a); push(s,c); push(s,b); push(s,a);
+            break;
+        }
+        case DUP2: {
+            int a = pop(s), b = pop(s);
+            push(s,b); push(s,a); push(s,b); push(s,a);
+            break;
+        }
+        case DUP2_X1: {
+            int a = pop(s), b = pop(s), c = pop(s);
+            push(s,b); push(s,a); push(s,c); push(s,b); push(s,a);
+            break;
+        }
+        case DUP2_X2: {
+            int a = pop(s), b = pop(s), c = pop(s), d = pop(s);
+            push(s,b); push(s,a); push(s,d); push(s,c); push(s,b); push(s,a);
+            break;
+        }
+        case SWAP: {
+            int a = pop(s), b = pop(s);
+            push(s,a); push(s,b);
+            break;
+        }
+        case GETSTATIC: case PUTSTATIC: case GETFIELD: case PUTFIELD: {
+            int words = Type.getType(((FieldInsnNode)insn).desc).getSize();
+            if (op==PUTFIELD)
+                record(i, s, words);
+            if (op==PUTSTATIC || op==PUTFIELD)
+                pop(s, words);
+            if (op==GETFIELD || op==PUTFIELD)
+                pop(s, 1);
+            if (op==GETSTATIC || op==GETFIELD)
+                push(s, OTHER, words);
+            break;
+        }
+        case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC: case INVOKEINTERFACE: {
+            int sizes = Type.getArgumentsAndReturnSizes(((MethodInsnNode)insn).desc);
+            int args = (sizes>>2)-1;
+            if (op==INVOKESPECIAL)
+                record(i, s, args);
+            pop(s, args + (op==INVOKESTATIC ? 0 : 1));
+            push(s, OTHER, sizes&3);
+            break;
+        }
+        case INVOKEDYNAMIC: {
+            int sizes = Type.getArgumentsAndReturnSizes(((InvokeDynamicInsnNode)insn).desc);
+            pop(s, (sizes>>2)-1);
+            push(s, OTHER, sizes&3);
+            break;
+        }
+        case NEW:
+            push(s, (i+1)<<2);
+            break;
+        case MULTIANEWARRAY:
+            pop(s, ((MultiANewArrayInsnNode)insn).dims);
+            push(s, OTHER);
+            break;
+        case JSR:
+            push(s, OTHER);
+            merge(indexOf(((JumpInsnNode)insn).label), s);
+            pop(s);
+            return i+1;
+        case RET:
+            return -1;
+        default:
+            if (op>=EFFECTS.length()/2 || EFFECTS.charAt(op*2)=='.')
+                throw new InvalidBytecodeException(insn, "Unexpected opcode "+op);
+            pop(s, EFFECTS.charAt(op*2)-'0');
+            push(s, OTHER, EFFECTS.charAt(op*2+1)-'0');
+        }
+
+        // control flow
+        if (insn instanceof JumpInsnNode) {
+            merge(indexOf(((JumpInsnNode)insn).label), s);
+            return op==GOTO ? -1 : i+1;
+        }
+        if (insn instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode t = (TableSwitchInsnNode) insn;
+            merge(indexOf(t.dflt), s);
+            for (LabelNode l : t.labels)
+                merge(indexOf(l), s);
+            return -1;
+        }
+        if (insn instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode t = (LookupSwitchInsnNode) insn;
+            merge(indexOf(t.dflt), s);
+            for (LabelNode l : t.labels)
+                merge(indexOf(l), s);
+            return -1;
+        }
+        if ((op>=IRETURN && op<=RETURN) || op==ATHROW)
+            return -1;
+        return i+1;
+    }
+
+    /**
+     * Records the receiver of the instruction, which is below the given number of words on the stack.
+     */
+    private void record(int i, int[] s, int words) throws InvalidBytecodeException {
+        int pos = s[size-1]-words-1;
+        if (pos<0)
+            throw new InvalidBytecodeException(insns[i], "Stack underflow");
+        receivers[i] = s[maxLocals+pos];
+        belows[i] = pos>0 ? s[maxLocals+pos-1] : NONE;
+    }
+
+    private void push(int[] s, int v) throws InvalidBytecodeException {
+        int height = s[size-1];
+        if (maxLocals+height>=size-1)
+            throw new InvalidBytecodeException(null, "Stack overflow");
+        s[maxLocals+height] = v;
+        s[size-1] = height+1;
+    }
+
+    private void push(int[] s, int v, int words) throws InvalidBytecodeException {
+        for (int j=0; j<words; j++)
+            push(s, v);
+    }
+
+    private int pop(int[] s) throws InvalidBytecodeException {
+        int height = s[size-1];
+        if (height==0)
+            throw new InvalidBytecodeException(null, "Stack underflow");
+        s[size-1] = height-1;
+        return s[maxLocals+height-1];
+    }
+
+    private void pop(int[] s, int words) throws InvalidBytecodeException {
+        for (int j=0; j<words; j++)
+            pop(s);
+    }
+
+    /**
+     * Is the instruction at the given index ever reached?
+     * Only known for <tt>INVOKESPECIAL</tt> and <tt>PUTFIELD</tt>.
+     */
+    boolean isReachable(int i) {
+        return receivers[i]!=UNREACHABLE;
+    }
+
+    /**
+     * Might the receiver of the <tt>INVOKESPECIAL</tt> or <tt>PUTFIELD</tt> at the given index be
+     * the uninitialized 'this' of the constructor?
+     */
+    boolean isThis(int i) {
+        return isReachable(i) && (receivers[i]&THIS)!=0;
+    }
+
+    /**
+     * Gets the <tt>NEW</tt> instruction that the receiver of the <tt>INVOKESPECIAL</tt> at the given index comes from.
+     *
+     * @return
+     *      index of the instruction, {@link #NOT_NEW} if the receiver comes from elsewhere, or
+     *      {@link #AMBIGUOUS} if it might come from more than one place.
+     */
+    int sourceOf(int i) {
+        int v = receivers[i];
+        int ref = v>>>2;
+        int count = Integer.bitCount(v&(THIS|OTHER)) + (ref==0 ? 0 : ref==MANY ? 2 : 1);
+        if (count!=1)
+            return AMBIGUOUS;
+        return ref==0 ? NOT_NEW : ref-1;
+    }
+
+    /**
+     * Thrown if the method isn't valid bytecode.
+     */
+    static final class InvalidBytecodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        InvalidBytecodeException(AbstractInsnNode insn, String message) {
+            super(insn==null ? message : message+" at opcode "+insn.getOpcode());
+        }
+    }
+
+    AbstractInsnNode getInstruction(int i) {
+        return insns[i];
+    }
+
+    /**
+     * Is there anything on the stack below the receiver of the <tt>INVOKESPECIAL</tt> at the given index?
+     */
+    boolean hasValueBelowReceiver(int i) {
+        return belows[i]!=NONE;
+    }
+}
@@ -0,0 +1,351 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.objectweb.asm.ClassWriter.COMPUTE_FRAMES;
+
+/**
+ * Transforms the classes in a jar file into another jar file, for the jars that don't come out of
+ * a build that {@code ProcessMojo} can be added to.
+ *
+ * <pre>
+ * java org.kohsuke.nomoretears.JarTransformer [-cp CLASSPATH] [-threads N] [-linkPlatform] [-linkLocal]
+ *                                             [-callSiteTable] [-include RULE] [-exclude RULE] IN.jar OUT.jar
+ * </pre>
+ *
+ * <p>
+ * Classes are transformed in parallel, and written in the same order as they are in the input,
+ * so the output only depends on the input. Other entries, and the classes that are left as they are,
+ * are copied without being inflated and deflated again. Classes that have been transformed already, and
+ * those whose constant pool refers to nothing that would be linked lazily, are left as they are without going
+ * through ASM. {@link CallSiteManifest} of the transformed classes is added, merged with the one already in the jar.
+ *
+ * <p>
+ * The classes in the jar are {@linkplain LinkPolicy#addLocalClasses(java.util.Collection) local} to each other.
+ * Use {@link LinkPolicy#setLinkLocal(boolean)} for jars that bundle several libraries.
+ * Signatures are dropped, as they no longer match the transformed classes.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class JarTransformer {
+    private final LinkPolicy policy;
+    private final List<File> classpath = new ArrayList<>();
+    private int threads;
+
+    private static final Pattern SIGNATURE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @param policy
+     *      Each jar is transformed with a copy of this, to which the classes in the jar are added as
+     *      the local classes. This one is left as it is.
+     */
+    public JarTransformer(LinkPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Directories and jar files where the super classes of the classes being transformed are found,
+     * besides the jar itself, for computing frames.
+     */
+    public JarTransformer setClasspath(List<File> classpath) {
+        this.classpath.clear();
+        this.classpath.addAll(classpath);
+        return this;
+    }
+
+    /**
+     * Number of threads to transform classes with. 0, the default, to use as many as there are processors.
+     */
+    public JarTransformer setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Outcome of an entry, computed by a worker thread.
+     */
+    private static final class Result {
+        /**
+         * Null to copy the entry as it is.
+         */
+        final RawZip.Data data;
+        /**
+         * Class that contains the call sites, and its part of {@link CallSiteManifest}.
+         * They are kept as they'll be written, as there can be millions of them.
+         */
+        final String caller;
+        final byte[] sites;
+        /**
+         * Why the class was left as it is, if it failed.
+         */
+        final Throwable failure;
+
+        Result(RawZip.Data data, String caller, byte[] sites, Throwable failure) {
+            this.data = data;
+            this.caller = caller;
+            this.sites = sites;
+            this.failure = failure;
+        }
+    }
+
+    private static final Result AS_IS = new Result(null, null, null, null);
+
+    /**
+     * Entry waiting to be written.
+     */
+    private static final class Pending {
+        final RawZip.Entry entry;
+        /**
+         * Null if the entry isn't a class.
+         */
+        final Future<Result> result;
+
+        Pending(RawZip.Entry entry, Future<Result> result) {
+            this.entry = entry;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Transforms the classes in {@code in} into {@code out}, which can be the same file.
+     *
+     * <p>
+     * Classes that fail to transform, for example because their super classes can't be found,
+     * are copied as they are.
+     *
+     * @return
+     *      the classes that failed to transform, keyed by their entry names.
+     */
+    public Map<String,Throwable> transform(File in, File out) throws IOException {
+        Map<String,Throwable> failures = new LinkedHashMap<>();
+        File tmp = new File(out.getPath()+".tmp");
+        List<File> cp = new ArrayList<>();
+        cp.add(in);
+        cp.addAll(classpath);
+
+        try (RawZip.Reader r = new RawZip.Reader(in);
+             TypeHierarchy h = new TypeHierarchy(cp)) {
+            Set<String> local = new HashSet<>();
+            for (RawZip.Entry e : r.getEntries())
+                if (isClass(e.name))
+                    local.add(className(e.name));
+            LinkPolicy policy = new LinkPolicy(this.policy).addLocalClasses(local);
+
+            int n = threads>0 ? threads : Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(n);
+            try (RawZip.Writer w = new RawZip.Writer(tmp)) {
+                // CallSiteManifest is sorted by the callers first, so it's a concatenation of what each class has
+                Map<String,byte[]> sites = new TreeMap<>();
+                RawZip.Entry manifest = null;
+
+                // keep a bounded number of entries in flight, and write them in order as they come out
+                ArrayDeque<Pending> pending = new ArrayDeque<>();
+                for (RawZip.Entry e : r.getEntries()) {
+                    if (SIGNATURE.matcher(e.name).matches())
+                        continue;
+                    if (e.name.equals(CallSiteManifest.RESOURCE)) {
+                        manifest = e;
+                        continue;
+                    }
+                    Future<Result> f = isClass(e.name) ? pool.submit(transformer(r, e, h, policy)) : null;
+                    pending.add(new Pending(e, f));
+                    if (pending.size()>=n*64)
+                        write(r, w, pending.poll(), sites, failures);
+                }
+                while (!pending.isEmpty())
+                    write(r, w, pending.poll(), sites, failures);
+
+                if (manifest!=null) {
+                    if (sites.isEmpty()) {
+                        w.copy(r, manifest);
+                    } else {
+                        // those of the classes that have been transformed before
+                        Map<String,List<CallSiteManifest.Entry>> old = new TreeMap<>();
+                        for (CallSiteManifest.Entry s : CallSiteManifest.read(new ByteArrayInputStream(r.read(manifest)))) {
+                            List<CallSiteManifest.Entry> l = old.get(s.caller);
+                            if (l==null)
+                                old.put(s.caller, l=new ArrayList<>());
+                            l.add(s);
+                        }
+                        for (Map.Entry<String,List<CallSiteManifest.Entry>> o : old.entrySet())
+                            if (!sites.containsKey(o.getKey()))
+                                sites.put(o.getKey(), serialize(o.getValue()));
+                    }
+                }
+                if (!sites.isEmpty()) {
+                    if (manifest==null)
+                        manifest = RawZip.newEntry(CallSiteManifest.RESOURCE);
+                    RawZip.Deflating d = new RawZip.Deflating(64*1024);
+                    for (byte[] b : sites.values())
+                        d.write(b, 0, b.length);
+                    w.write(manifest, d.finish());
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return failures;
+    }
+
+    private static boolean isClass(String name) {
+        return name.endsWith(".class") && !name.endsWith("module-info.class");
+    }
+
+    /**
+     * Internal name of the class in the entry, including those specific to a version of a multi-release jar.
+     */
+    private static String className(String name) {
+        if (name.startsWith("META-INF/versions/")) {
+            int idx = name.indexOf('/', "META-INF/versions/".length());
+            name = name.substring(idx+1);
+        }
+        return name.substring(0, name.length()-".class".length());
+    }
+
+    private static Callable<Result> transformer(final RawZip.Reader r, final RawZip.Entry e, final TypeHierarchy h, final LinkPolicy policy) {
+        return new Callable<Result>() {
+            public Result call() {
+                try {
+                    byte[] image = r.read(e);
+                    if (ClassTransformer.isTransformed(image, 0, image.length)
+                     || !ClassTransformer.mayLink(image, 0, image.length, policy))
+                        return AS_IS;
+
+                    ClassReader cr = new ClassReader(image);
+                    ClassWriter cw = h.createClassWriter(cr, COMPUTE_FRAMES);
+                    ClassTransformer ct = new ClassTransformer(cw, policy);
+                    try {
+                        ct.transform(cr);
+                    } catch (AlreadyUpToDate x) {
+                        return AS_IS;
+                    }
+                    List<CallSiteManifest.Entry> sites = ct.getSites();
+                    if (sites.isEmpty())
+                        return AS_IS;
+                    byte[] out = cw.toByteArray();
+                    RawZip.Deflating d = new RawZip.Deflating(out.length);
+                    d.write(out, 0, out.length);
+                    return new Result(d.finish(), sites.get(0).caller, serialize(sites), null);
+                } catch (Exception | LinkageError x) {
+                    return new Result(null, null, null, x);
+                }
+            }
+        };
+    }
+
+    private static void write(RawZip.Reader r, RawZip.Writer w, Pending p,
+                              Map<String,byte[]> sites, Map<String,Throwable> failures) throws IOException {
+        RawZip.Entry e = p.entry;
+        Result result = AS_IS;
+        if (p.result!=null) {
+            try {
+                result = p.result.get();
+            } catch (InterruptedException x) {
+                throw (IOException)new InterruptedIOException().initCause(x);
+            } catch (ExecutionException x) {
+                throw new IOException("Failed to transform "+e.name, x.getCause());
+            }
+        }
+        if (result.failure!=null)
+            failures.put(e.name, result.failure);
+        if (result.data!=null) {
+            w.write(e, result.data);
+            byte[] b = sites.get(result.caller);
+            if (b!=null) {
+                // another version of the same class in a multi-release jar
+                List<CallSiteManifest.Entry> l = new ArrayList<>();
+                l.addAll(CallSiteManifest.read(new ByteArrayInputStream(b)));
+                l.addAll(CallSiteManifest.read(new ByteArrayInputStream(result.sites)));
+                b = serialize(l);
+            }
+            sites.put(result.caller, b!=null ? b : result.sites);
+        } else {
+            w.copy(r, e);
+        }
+    }
+
+    /**
+     * Writes the distinct call sites of a class in the order of {@link CallSiteManifest}.
+     */
+    private static byte[] serialize(List<CallSiteManifest.Entry> sites) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        CallSiteManifest.write(new TreeSet<>(sites), buf);
+        return buf.toByteArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        LinkPolicy policy = new LinkPolicy();
+        JarTransformer jt = new JarTransformer(policy);
+        List<String> files = new ArrayList<>();
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+            case "-cp":
+            case "-classpath":
+                List<File> cp = new ArrayList<>();
+                for (String e : args[++i].split(Pattern.quote(File.pathSeparator)))
+                    if (!e.isEmpty())
+                        cp.add(new File(e));
+                jt.setClasspath(cp);
+                break;
+            case "-threads":
+                jt.setThreads(Integer.parseInt(args[++i]));
+                break;
+            case "-linkPlatform":
+                policy.setLinkPlatform(true);
+                break;
+            case "-linkLocal":
+                policy.setLinkLocal(true);
+                break;
+            case "-callSiteTable":
+                policy.setCallSiteTable(true);
+                break;
+            case "-include":
+                policy.include(args[++i]);
+                break;
+            case "-exclude":
+                policy.exclude(args[++i]);
+                break;
+            default:
+                files.add(args[i]);
+            }
+        }
+        if (files.size()!=2) {
+            System.err.println("Usage: java "+JarTransformer.class.getName()+" [-cp CLASSPATH] [-threads N] [-linkPlatform] [-linkLocal] [-callSiteTable] [-include RULE] [-exclude RULE] IN.jar OUT.jar");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        Map<String,Throwable> failures = jt.transform(new File(files.get(0)), new File(files.get(1)));
+        for (Map.Entry<String,Throwable> e : failures.entrySet())
+            System.err.println("Left "+e.getKey()+" as it is: "+e.getValue());
+        System.err.printf("Transformed %s in %d ms%n", files.get(0), (System.nanoTime()-start)/1000000);
+    }
+}
@@ -0,0 +1,217 @@
+package org.kohsuke.nomoretears;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which references {@link ClassTransformer} turns into invokedynamic.
+ *
+ * <p>
+ * A reference that can't break at runtime only pays for lazy linking without gaining anything.
+ * By default, references to the platform classes in <tt>java.*</tt>, and references between classes that are
+ * compiled together, such as those to the class itself, its nestmates, and the {@linkplain #addLocalClasses local classes},
+ * are left as they are.
+ *
+ * <p>
+ * On top of that, {@linkplain #include(String) include} and {@linkplain #exclude(String) exclude} rules
+ * narrow down the owners further. Methods and classes annotated with {@link DirectLink} are left alone entirely.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class LinkPolicy {
+    private boolean linkPlatform;
+    private boolean linkLocal;
+    private boolean callSiteTable;
+
+    /**
+     * Internal names of the classes compiled together with the ones being transformed.
+     */
+    private final Set<String> localClasses = new HashSet<>();
+
+    private final List<Rule> includes = new ArrayList<>();
+    private final List<Rule> excludes = new ArrayList<>();
+
+    public LinkPolicy() {}
+
+    /**
+     * Copies the settings, the local classes and the rules of another policy, so that they can be added to
+     * without affecting it.
+     */
+    public LinkPolicy(LinkPolicy that) {
+        this.linkPlatform = that.linkPlatform;
+        this.linkLocal = that.linkLocal;
+        this.callSiteTable = that.callSiteTable;
+        this.localClasses.addAll(that.localClasses);
+        this.includes.addAll(that.includes);
+        this.excludes.addAll(that.excludes);
+    }
+
+    /**
+     * If true, references to <tt>java.*</tt> classes are lazily linked, too.
+     */
+    public LinkPolicy setLinkPlatform(boolean b) {
+        this.linkPlatform = b;
+        return this;
+    }
+
+    /**
+     * If true, references between classes that are compiled together are lazily linked, too.
+     * This is mostly useful for testing linkers.
+     */
+    public LinkPolicy setLinkLocal(boolean b) {
+        this.linkLocal = b;
+        return this;
+    }
+
+    /**
+     * If true, each transformed class lists the references its call sites make in {@link CallSiteTable},
+     * which {@link LinkerBootstrap#BATCH} needs to link them all at once. It makes the classes bigger,
+     * so it's off unless batching is going to be used.
+     */
+    public LinkPolicy setCallSiteTable(boolean b) {
+        this.callSiteTable = b;
+        return this;
+    }
+
+    public boolean isCallSiteTable() {
+        return callSiteTable;
+    }
+
+    /**
+     * Adds classes that are compiled together with the ones being transformed, such as
+     * all the classes in the same output directory.
+     *
+     * @param internalNames
+     *      Class names like "org/acme/Foo".
+     */
+    public LinkPolicy addLocalClasses(Collection<String> internalNames) {
+        localClasses.addAll(internalNames);
+        return this;
+    }
+
+    /**
+     * Only lazily links references to the owners that match one of the include rules.
+     *
+     * <p>
+     * A rule is a glob of class names, such as "org.acme.Foo", "org.acme.*" for the classes in a package,
+     * or "org.acme.**" for those in its subpackages as well. It can be prefixed by the operations it applies to,
+     * such as "invokeVirtual,getField:org.acme.**", using the names of {@link Operation}s.
+     *
+     * @throws IllegalArgumentException
+     *      if the rule refers to an unknown operation.
+     */
+    public LinkPolicy include(String rule) {
+        includes.add(new Rule(rule));
+        return this;
+    }
+
+    /**
+     * Never lazily links references to the owners that match this rule.
+     *
+     * @see #include(String)
+     */
+    public LinkPolicy exclude(String rule) {
+        excludes.add(new Rule(rule));
+        return this;
+    }
+
+    /**
+     * Is the given owner a platform class?
+     */
+    public boolean isPlatform(String owner) {
+        return owner.startsWith("java/");
+    }
+
+    /**
+     * Should references to the given owner be turned into invokedynamic?
+     *
+     * @param op
+     *      Kind of the reference.
+     * @param owner
+     *      Internal name of the class that the reference is to.
+     * @param nestmate
+     *      True if the owner is the class being transformed or one of its nestmates.
+     */
+    public boolean isLinked(Operation op, String owner, boolean nestmate) {
+        if (isPlatform(owner) ? !linkPlatform : (nestmate || localClasses.contains(owner)) && !linkLocal)
+            return false;
+        if (!includes.isEmpty() && !matches(includes, op, owner))
+            return false;
+        return !matches(excludes, op, owner);
+    }
+
+    /**
+     * Describes the settings that affect the outcome of the transformation, so that a build can tell
+     * if the classes transformed earlier were transformed with the same settings.
+     * The {@linkplain #addLocalClasses local classes} are not a part of it, as adding or removing a class
+     * doesn't change how the other classes refer to each other.
+     */
+    public String getFingerprint() {
+        return "linkPlatform="+linkPlatform+",linkLocal="+linkLocal+",callSiteTable="+callSiteTable
+                +",includes="+includes+",excludes="+excludes;
+    }
+
+    private static boolean matches(List<Rule> rules, Operation op, String owner) {
+        for (Rule r : rules)
+            if (r.matches(op, owner))
+                return true;
+        return false;
+    }
+
+    /**
+     * Turns a glob of class names, as in {@link #include(String)}, into a pattern over internal names.
+     */
+    static Pattern glob(String glob) {
+        StringBuilder re = new StringBuilder();
+        glob = glob.trim().replace('.','/');
+        for (int i=0; i<glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch=='*') {
+                if (i+1<glob.length() && glob.charAt(i+1)=='*') {
+                    re.append(".*");
+                    i++;
+                } else {
+                    re.append("[^/]*");
+                }
+            } else {
+                re.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(re.toString());
+    }
+
+    private static final class Rule {
+        private final Set<Operation> operations;
+        private final Pattern pattern;
+        private final String text;
+
+        Rule(String rule) {
+            this.text = rule;
+            int idx = rule.indexOf(':');
+            if (idx<0) {
+                operations = EnumSet.allOf(Operation.class);
+            } else {
+                operations = EnumSet.noneOf(Operation.class);
+                for (String op : rule.substring(0,idx).split(","))
+                    operations.add(Operation.fromBootstrapName(op.trim()));
+                rule = rule.substring(idx+1);
+            }
+
+            pattern = glob(rule);
+        }
+
+        boolean matches(Operation op, String owner) {
+            return operations.contains(op) && pattern.matcher(owner).matches();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
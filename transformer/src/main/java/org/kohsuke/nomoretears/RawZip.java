@@ -0,0 +1,574 @@
+package org.kohsuke.nomoretears;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads and writes zip files at the level of their records, so that an entry can be copied from one to another
+ * without being inflated and deflated again, which {@link java.util.zip} can't do.
+ *
+ * <p>
+ * Only the central directory is trusted for the metadata of entries, as the local headers may defer it
+ * to the data descriptors. Entries are written with complete local headers instead.
+ * Offsets are relative to the start of the zip file, which needn't be the start of the file,
+ * such as when a launcher script is prepended to a jar. That prefix is not written.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+final class RawZip {
+    private RawZip() {}
+
+    private static final int LOCAL = 0x04034b50;
+    private static final int CENTRAL = 0x02014b50;
+    private static final int END = 0x06054b50;
+    private static final int END64 = 0x06064b50;
+    private static final int END64_LOCATOR = 0x07064b50;
+
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long MAX32 = 0xFFFFFFFFL;
+    private static final int MAX16 = 0xFFFF;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    /**
+     * Flag that the sizes and the CRC follow the data, which is never the case for what {@link Writer} writes.
+     */
+    private static final int DATA_DESCRIPTOR = 1<<3;
+
+    /**
+     * Entry as recorded in the central directory.
+     */
+    static final class Entry {
+        final String name;
+        final byte[] rawName;
+        final int versionMadeBy;
+        final int flags;
+        final int method;
+        /**
+         * DOS time in the lower 16 bits, DOS date in the upper.
+         */
+        final int time;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        /**
+         * Extra fields of the central directory, without the zip64 one.
+         */
+        final byte[] extra;
+        final byte[] comment;
+        final int internalAttributes;
+        final long externalAttributes;
+        /**
+         * Offset of the local header in the file it's read from, counting what's prepended to the zip file.
+         */
+        final long offset;
+
+        Entry(byte[] rawName, int versionMadeBy, int flags, int method, int time, long crc, long compressedSize, long size,
+              byte[] extra, byte[] comment, int internalAttributes, long externalAttributes, long offset) {
+            this.name = new String(rawName, StandardCharsets.UTF_8);
+            this.rawName = rawName;
+            this.versionMadeBy = versionMadeBy;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.extra = extra;
+            this.comment = comment;
+            this.internalAttributes = internalAttributes;
+            this.externalAttributes = externalAttributes;
+            this.offset = offset;
+        }
+
+        /**
+         * Creates an entry of the same name and attributes but with the given data.
+         */
+        Entry with(int method, long crc, long compressedSize, long size) {
+            return new Entry(rawName, versionMadeBy, flags, method, time, crc, compressedSize, size,
+                    extra, comment, internalAttributes, externalAttributes, -1);
+        }
+    }
+
+    /**
+     * DOS timestamp of 1980-01-01 00:00, the earliest there is, so that the output doesn't depend on when it's made.
+     */
+    private static final int EPOCH = ((1<<5)|1)<<16;
+
+    /**
+     * Flag that the name is in UTF-8.
+     */
+    private static final int UTF8 = 1<<11;
+
+    /**
+     * Creates a new file entry, to be written by {@link Writer#write(Entry, Data)}.
+     */
+    static Entry newEntry(String name) {
+        return new Entry(name.getBytes(StandardCharsets.UTF_8), 20, UTF8, DEFLATED, EPOCH, 0, 0, 0,
+                new byte[0], new byte[0], 0, 0, -1);
+    }
+
+    /**
+     * Data of an entry as it's stored.
+     */
+    static final class Data {
+        final int method;
+        final long crc;
+        final long size;
+        final byte[] buf;
+        final int len;
+
+        Data(int method, long crc, long size, byte[] buf, int len) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.buf = buf;
+            this.len = len;
+        }
+    }
+
+    /**
+     * Transformed classes are deflated for speed, as they are the bulk of the work for large jars.
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * Deflates what's written to it into {@link Data}.
+     * Uses the deflater of the calling thread, so it can't be handed over to another thread.
+     */
+    static final class Deflating extends OutputStream {
+        private final CRC32 crc = new CRC32();
+        private final Deflater d = DEFLATER.get();
+        private long size;
+        private byte[] buf;
+        private int len;
+
+        /**
+         * @param sizeHint
+         *      Expected number of bytes to be written.
+         */
+        Deflating(int sizeHint) {
+            d.reset();
+            buf = new byte[sizeHint/2+64];
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            crc.update(b, off, len);
+            size += len;
+            d.setInput(b, off, len);
+            while (!d.needsInput())
+                drain();
+        }
+
+        private void drain() {
+            if (len==buf.length)
+                buf = Arrays.copyOf(buf, buf.length*2);
+            len += d.deflate(buf, len, buf.length-len);
+        }
+
+        Data finish() {
+            d.finish();
+            while (!d.finished())
+                drain();
+            return new Data(DEFLATED, crc.getValue(), size, buf, len);
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final List<Entry> entries = new ArrayList<>();
+
+        Reader(File file) throws IOException {
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                readCentralDirectory();
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Entries in the order of the central directory.
+         */
+        List<Entry> getEntries() {
+            return entries;
+        }
+
+        private void readFully(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n<0)    throw new EOFException();
+                pos += n;
+            }
+            buf.flip();
+        }
+
+        private void readCentralDirectory() throws IOException {
+            // the end record is followed by the comment of up to 64K
+            long size = ch.size();
+            long base = size-tail(size);
+            int tail = tail(size);
+            ByteBuffer buf = allocate(tail);
+            readFully(buf, base);
+            int end = -1;
+            for (int i=tail-22; i>=0; i--) {
+                if (buf.getInt(i)==END) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end<0)
+                throw new ZipException("Not a zip file");
+
+            long count = buf.getShort(end+10)&MAX16;
+            long cdSize = buf.getInt(end+12)&MAX32;
+            long cdOffset = buf.getInt(end+16)&MAX32;
+            // where the central directory actually ends, which tells how much is prepended to the zip file
+            long cdEnd = base+end;
+            if (count==MAX16 || cdSize==MAX32 || cdOffset==MAX32) {
+                int locator = end-20;
+                if (locator>=0 && buf.getInt(locator)==END64_LOCATOR) {
+                    // the zip64 end record normally comes right before its locator, but it may have extensible data
+                    ByteBuffer e64 = allocate(56);
+                    long e64Pos = base+locator-56;
+                    if (e64Pos>=0)
+                        readFully(e64, e64Pos);
+                    if (e64Pos<0 || e64.getInt(0)!=END64) {
+                        e64.clear();
+                        e64Pos = buf.getLong(locator+8);
+                        readFully(e64, e64Pos);
+                        if (e64.getInt(0)!=END64)
+                            throw new ZipException("Broken zip64 end of central directory");
+                    }
+                    count = e64.getLong(32);
+                    cdSize = e64.getLong(40);
+                    cdOffset = e64.getLong(48);
+                    cdEnd = e64Pos;
+                }
+            }
+            long prefix = cdEnd-cdSize-cdOffset;
+            if (prefix<0)
+                throw new ZipException("Broken end of central directory");
+            if (cdSize>Integer.MAX_VALUE)
+                throw new ZipException("Central directory is too large");
+
+            ByteBuffer cd = allocate((int)cdSize);
+            readFully(cd, prefix+cdOffset);
+            for (long i=0; i<count; i++)
+                entries.add(readEntry(cd, prefix));
+        }
+
+        private static int tail(long size) {
+            return (int)Math.min(size, 22+MAX16);
+        }
+
+        /**
+         * @param prefix
+         *      Number of bytes before the zip file, which the offsets don't count.
+         */
+        private static Entry readEntry(ByteBuffer cd, long prefix) throws ZipException {
+            if (cd.getInt()!=CENTRAL)
+                throw new ZipException("Broken central directory");
+            int versionMadeBy = cd.getShort()&MAX16;
+            cd.getShort();  // version needed, which we compute ourselves
+            int flags = cd.getShort()&MAX16;
+            int method = cd.getShort()&MAX16;
+            int time = cd.getInt();
+            long crc = cd.getInt()&MAX32;
+            long compressedSize = cd.getInt()&MAX32;
+            long size = cd.getInt()&MAX32;
+            int nameLen = cd.getShort()&MAX16;
+            int extraLen = cd.getShort()&MAX16;
+            int commentLen = cd.getShort()&MAX16;
+            cd.getShort();  // disk
+            int internal = cd.getShort()&MAX16;
+            long external = cd.getInt()&MAX32;
+            long offset = cd.getInt()&MAX32;
+
+            byte[] name = new byte[nameLen];
+            cd.get(name);
+
+            // take the real values out of the zip64 field, and drop it as it's written afresh
+            ByteBuffer extra = allocate(extraLen);
+            int end = cd.position()+extraLen;
+            while (cd.position()+4<=end) {
+                int id = cd.getShort()&MAX16;
+                int len = cd.getShort()&MAX16;
+                int next = cd.position()+len;
+                if (id==ZIP64_EXTRA) {
+                    if (size==MAX32)            size = cd.getLong();
+                    if (compressedSize==MAX32)  compressedSize = cd.getLong();
+                    if (offset==MAX32)          offset = cd.getLong();
+                } else {
+                    extra.putShort((short)id).putShort((short)len);
+                    extra.put(cd.array(), cd.position(), len);
+                }
+                cd.position(next);
+            }
+            cd.position(end);
+
+            byte[] comment = new byte[commentLen];
+            cd.get(comment);
+
+            return new Entry(name, versionMadeBy, flags, method, time, crc, compressedSize, size,
+                    Arrays.copyOf(extra.array(), extra.position()), comment, internal, external, prefix+offset);
+        }
+
+        /**
+         * Finds where the data of the entry starts, past its local header.
+         */
+        private long dataOffset(Entry e) throws IOException {
+            ByteBuffer h = allocate(30);
+            readFully(h, e.offset);
+            if (h.getInt(0)!=LOCAL)
+                throw new ZipException("Broken local header of "+e.name);
+            return e.offset+30+(h.getShort(26)&MAX16)+(h.getShort(28)&MAX16);
+        }
+
+        /**
+         * Reads and inflates the data of the entry. Safe to call from multiple threads.
+         */
+        byte[] read(Entry e) throws IOException {
+            if (e.compressedSize>Integer.MAX_VALUE || e.size>Integer.MAX_VALUE)
+                throw new ZipException(e.name+" is too large");
+            ByteBuffer raw = ByteBuffer.allocate((int)e.compressedSize);
+            readFully(raw, dataOffset(e));
+            switch (e.method) {
+            case STORED:
+                return raw.array();
+            case DEFLATED:
+                Inflater inf = INFLATER.get();
+                inf.reset();
+                inf.setInput(raw.array());
+                byte[] buf = new byte[(int)e.size];
+                try {
+                    int n = 0;
+                    while (n<buf.length) {
+                        int r = inf.inflate(buf, n, buf.length-n);
+                        if (r==0 && (inf.finished() || inf.needsInput()))
+                            break;
+                        n += r;
+                    }
+                    if (n!=buf.length)
+                        throw new ZipException("Truncated "+e.name);
+                } catch (DataFormatException x) {
+                    throw new ZipException("Broken "+e.name+": "+x.getMessage());
+                }
+                return buf;
+            default:
+                throw new ZipException("Unsupported compression method "+e.method+" of "+e.name);
+            }
+        }
+
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = allocate(64*1024);
+        /**
+         * Entries written so far, with their offsets in this file.
+         */
+        private final List<Entry> written = new ArrayList<>();
+        private long position;
+
+        Writer(File file) throws IOException {
+            ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf);
+            buf.clear();
+        }
+
+        /**
+         * Makes room in {@link #buf} for at least the given number of bytes, if it can hold them at all.
+         */
+        private ByteBuffer reserve(int len) throws IOException {
+            if (buf.remaining()<len)
+                flush();
+            return buf;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (len>buf.capacity()) {
+                flush();
+                ByteBuffer w = ByteBuffer.wrap(b, off, len);
+                while (w.hasRemaining())
+                    ch.write(w);
+            } else {
+                reserve(len).put(b, off, len);
+            }
+            position += len;
+        }
+
+        private void writeLocalHeader(Entry e) throws IOException {
+            if (e.size>=MAX32 || e.compressedSize>=MAX32)
+                throw new ZipException(e.name+" is too large");
+            written.add(new Entry(e.rawName, e.versionMadeBy, e.flags&~DATA_DESCRIPTOR, e.method, e.time, e.crc,
+                    e.compressedSize, e.size, e.extra, e.comment, e.internalAttributes, e.externalAttributes, position));
+            reserve(30+e.rawName.length)
+                .putInt(LOCAL)
+                .putShort((short)versionNeeded(e))
+                .putShort((short)(e.flags&~DATA_DESCRIPTOR))
+                .putShort((short)e.method)
+                .putInt(e.time)
+                .putInt((int)e.crc)
+                .putInt((int)e.compressedSize)
+                .putInt((int)e.size)
+                .putShort((short)e.rawName.length)
+                .putShort((short)0)
+                .put(e.rawName);
+            position += 30+e.rawName.length;
+        }
+
+        private static int versionNeeded(Entry e) {
+            return e.method==DEFLATED || e.name.endsWith("/") ? 20 : 10;
+        }
+
+        /**
+         * Copies the entry from the reader as it is.
+         */
+        void copy(Reader r, Entry e) throws IOException {
+            writeLocalHeader(e);
+            flush();
+            long pos = r.dataOffset(e), len = e.compressedSize;
+            while (len>0) {
+                long n = r.ch.transferTo(pos, len, ch);
+                if (n<=0)
+                    throw new EOFException("Truncated "+e.name);
+                pos += n;
+                len -= n;
+            }
+            position += e.compressedSize;
+        }
+
+        /**
+         * Writes the entry with new data.
+         */
+        void write(Entry e, Data d) throws IOException {
+            writeLocalHeader(e.with(d.method, d.crc, d.len, d.size));
+            write(d.buf, 0, d.len);
+        }
+
+        /**
+         * Writes the central directory and closes the file.
+         */
+        public void close() throws IOException {
+            try {
+                long cdOffset = position;
+                for (Entry e : written)
+                    writeCentralEntry(e);
+                long cdSize = position-cdOffset;
+
+                boolean zip64 = written.size()>=MAX16 || cdOffset>=MAX32 || cdSize>=MAX32;
+                if (zip64) {
+                    long end64 = position;
+                    reserve(56+20)
+                        .putInt(END64)
+                        .putLong(44)
+                        .putShort((short)45)
+                        .putShort((short)45)
+                        .putInt(0)
+                        .putInt(0)
+                        .putLong(written.size())
+                        .putLong(written.size())
+                        .putLong(cdSize)
+                        .putLong(cdOffset)
+                        .putInt(END64_LOCATOR)
+                        .putInt(0)
+                        .putLong(end64)
+                        .putInt(1);
+                    position += 56+20;
+                }
+                reserve(22)
+                    .putInt(END)
+                    .putShort((short)0)
+                    .putShort((short)0)
+                    .putShort((short)Math.min(written.size(), MAX16))
+                    .putShort((short)Math.min(written.size(), MAX16))
+                    .putInt((int)Math.min(cdSize, MAX32))
+                    .putInt((int)Math.min(cdOffset, MAX32))
+                    .putShort((short)0);
+                position += 22;
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+
+        private void writeCentralEntry(Entry e) throws IOException {
+            boolean zip64 = e.offset>=MAX32;
+            int extraLen = e.extra.length+(zip64 ? 12 : 0);
+            reserve(46)
+                .putInt(CENTRAL)
+                .putShort((short)e.versionMadeBy)
+                .putShort((short)(zip64 ? 45 : versionNeeded(e)))
+                .putShort((short)e.flags)
+                .putShort((short)e.method)
+                .putInt(e.time)
+                .putInt((int)e.crc)
+                .putInt((int)e.compressedSize)
+                .putInt((int)e.size)
+                .putShort((short)e.rawName.length)
+                .putShort((short)extraLen)
+                .putShort((short)e.comment.length)
+                .putShort((short)0)
+                .putShort((short)e.internalAttributes)
+                .putInt((int)e.externalAttributes)
+                .putInt((int)(zip64 ? MAX32 : e.offset));
+            position += 46;
+            write(e.rawName, 0, e.rawName.length);
+            if (zip64) {
+                reserve(12).putShort((short)ZIP64_EXTRA).putShort((short)8).putLong(e.offset);
+                position += 12;
+            }
+            write(e.extra, 0, e.extra.length);
+            write(e.comment, 0, e.comment.length);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.kohsuke.nomoretears;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Answers the questions about the class hierarchy that computing stack map frames needs,
+ * by reading class files instead of loading the classes.
+ *
+ * <p>
+ * Classes are looked up lazily in the given directories and jar files, then among the platform classes
+ * of the running JVM, and only the header of the class file is read. What's been read from jar files and
+ * the platform can be {@linkplain #save(File) saved} and {@linkplain #load(File) loaded}, so that the next
+ * build doesn't open the jar files again as long as they haven't changed. Classes in directories are always
+ * read afresh, as they are the ones that change between builds.
+ *
+ * @author Kohsuke Kawaguchi
+ */
+public class TypeHierarchy implements Closeable {
+    private static final String OBJECT = "java/lang/Object";
+
+    /**
+     * Origin of the platform classes in {@link #save(File)}.
+     */
+    private static final String PLATFORM = "platform:"+System.getProperty("java.home")+":"+System.getProperty("java.version");
+
+    private final List<File> classpath;
+
+    /**
+     * If non-null, class files are also looked up as the resources of this class loader.
+     */
+    private final WeakReference<ClassLoader> loader;
+
+    private final ConcurrentMap<String,Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Jar files on {@link #classpath} that have been opened.
+     */
+    private final Map<File,ZipFile> jars = new HashMap<>();
+
+    private static final class Node {
+        /**
+         * Null for {@link Object}.
+         */
+        final String superName;
+        final boolean isInterface;
+        /**
+         * Jar file or {@link #PLATFORM} where the class was found, or null if it's from a directory.
+         */
+        final String origin;
+
+        Node(String superName, boolean isInterface, String origin) {
+            this.superName = superName;
+            this.isInterface = isInterface;
+            this.origin = origin;
+        }
+    }
+
+    /**
+     * @param classpath
+     *      Directories and jar files to look for classes in, in the order of precedence.
+     */
+    public TypeHierarchy(List<File> classpath) {
+        this.classpath = new ArrayList<>(classpath);
+        this.loader = null;
+    }
+
+    /**
+     * Looks up class files as the resources of the given class loader, for transforming classes as they are loaded.
+     * The class loader is only weakly referenced.
+     */
+    public TypeHierarchy(ClassLoader loader) {
+        this.classpath = Collections.emptyList();
+        this.loader = new WeakReference<>(loader);
+    }
+
+    /**
+     * Creates a {@link ClassWriter} that uses this hierarchy to compute frames.
+     */
+    public ClassWriter createClassWriter(ClassReader cr, int flags) {
+        return new ClassWriter(cr, flags) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return TypeHierarchy.this.getCommonSuperClass(type1, type2);
+            }
+        };
+    }
+
+    /**
+     * Gets the closest common super class of the given two classes, or {@link Object} if one of them is an interface,
+     * which is how the verifier treats interfaces.
+     *
+     * @throws TypeNotPresentException
+     *      if either of the classes, or one of their super classes, can't be found.
+     */
+    public String getCommonSuperClass(String type1, String type2) {
+        if (get(type1).isInterface || get(type2).isInterface)
+            return OBJECT;
+
+        Set<String> supers = new HashSet<>();
+        for (String t=type1; t!=null; t=get(t).superName)
+            supers.add(t);
+        for (String t=type2; t!=null; t=get(t).superName)
+            if (supers.contains(t))
+                return t;
+        return OBJECT;
+    }
+
+    private Node get(String name) {
+        Node n = nodes.get(name);
+        if (n==null) {
+            try {
+                n = find(name);
+            } catch (IOException e) {
+                throw new TypeNotPresentException(name.replace('/','.'), e);
+            }
+            if (n==null)
+                throw new TypeNotPresentException(name.replace('/','.'), null);
+            nodes.putIfAbsent(name, n);
+        }
+        return n;
+    }
+
+    private Node find(String name) throws IOException {
+        String path = name+".class";
+        for (File e : classpath) {
+            if (e.isDirectory()) {
+                File f = new File(e, path);
+                if (f.exists()) {
+                    try (InputStream in = new FileInputStream(f)) {
+                        return read(in, null);
+                    }
+                }
+            } else
+            if (e.isFile()) {
+                ZipFile z = open(e);
+                ZipEntry ze = z.getEntry(path);
+                if (ze!=null) {
+                    try (InputStream in = z.getInputStream(ze)) {
+                        return read(in, e.getPath());
+                    }
+                }
+            }
+        }
+        ClassLoader cl = loader!=null ? loader.get() : null;
+        if (cl!=null) {
+            InputStream in = cl.getResourceAsStream(path);
+            if (in!=null) {
+                try {
+                    return read(in, null);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        // class files are never encapsulated, so this finds them in any module of the platform
+        InputStream in = ClassLoader.getSystemResourceAsStream(path);
+        if (in!=null) {
+            try {
+                return read(in, PLATFORM);
+            } finally {
+                in.close();
+            }
+        }
+        return null;
+    }
+
+    private ZipFile open(File jar) throws IOException {
+        synchronized (jars) {
+            ZipFile z = jars.get(jar);
+            if (z==null)
+                jars.put(jar, z=new ZipFile(jar));
+            return z;
+        }
+    }
+
+    /**
+     * Reads the access flags and the super class from the class file header, without going through
+     * {@link ClassReader}, which refuses class files newer than it knows.
+     */
+    private static Node read(InputStream is, String origin) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        in.skipBytes(8);    // magic and version
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classes = new int[count];
+        for (int i=1; i<count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1:     // Utf8
+                utf8[i] = in.readUTF();
+                break;
+            case 7:     // Class
+                classes[i] = in.readUnsignedShort();
+                break;
+            case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                in.skipBytes(4);
+                break;
+            case 5: case 6:
+                in.skipBytes(8);
+                i++;
+                break;
+            case 15:
+                in.skipBytes(3);
+                break;
+            case 8: case 16: case 19: case 20:
+                in.skipBytes(2);
+                break;
+            default:
+                throw new IOException("Unexpected constant pool tag "+tag);
+            }
+        }
+        int access = in.readUnsignedShort();
+        in.readUnsignedShort();     // this class
+        int superClass = in.readUnsignedShort();
+        return new Node(superClass==0 ? null : utf8[classes[superClass]], (access&ACC_INTERFACE)!=0, origin);
+    }
+
+    /**
+     * Loads what a previous build has saved, except those from the jar files that have changed
+     * or that are no longer on the classpath, and those that a directory on the classpath now has,
+     * which take precedence.
+     */
+    public void load(File cache) {
+        if (!cache.exists())
+            return;
+
+        Map<String,Boolean> valid = new HashMap<>();
+        valid.put(PLATFORM, true);
+        List<File> dirs = new ArrayList<>();
+        for (File e : classpath) {
+            if (e.isFile())
+                valid.put(e.getPath()+':'+e.length()+':'+e.lastModified(), true);
+            if (e.isDirectory())
+                dirs.add(e);
+        }
+
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(cache), StandardCharsets.UTF_8))) {
+            String origin = null;
+            boolean accept = false;
+            String line;
+            while ((line=r.readLine())!=null) {
+                if (line.startsWith("\t")) {
+                    if (accept) {
+                        String[] tokens = line.substring(1).split("\t");
+                        if (!isInDirectory(dirs, tokens[0]))
+                            nodes.putIfAbsent(tokens[0], new Node(tokens[1].isEmpty() ? null : tokens[1], tokens[2].equals("I"), origin));
+                    }
+                } else {
+                    accept = valid.containsKey(line);
+                    origin = line.equals(PLATFORM) ? PLATFORM : line.substring(0,line.lastIndexOf(':',line.lastIndexOf(':')-1));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // it's just a cache
+        }
+    }
+
+    private static boolean isInDirectory(List<File> dirs, String name) {
+        for (File d : dirs)
+            if (new File(d, name+".class").exists())
+                return true;
+        return false;
+    }
+
+    /**
+     * Saves the classes read from jar files and the platform, for {@link #load(File)}.
+     */
+    public void save(File cache) throws IOException {
+        Map<String,Map<String,Node>> byOrigin = new TreeMap<>();
+        for (Map.Entry<String,Node> e : nodes.entrySet()) {
+            String origin = e.getValue().origin;
+            if (origin==null)   continue;
+            if (!origin.equals(PLATFORM)) {
+                File jar = new File(origin);
+                origin = origin+':'+jar.length()+':'+jar.lastModified();
+            }
+            Map<String,Node> m = byOrigin.get(origin);
+            if (m==null)
+                byOrigin.put(origin, m=new TreeMap<>());
+            m.put(e.getKey(), e.getValue());
+        }
+
+        cache.getParentFile().mkdirs();
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(cache), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String,Map<String,Node>> o : byOrigin.entrySet()) {
+                w.println(o.getKey());
+                for (Map.Entry<String,Node> e : o.getValue().entrySet()) {
+                    Node n = e.getValue();
+                    w.println('\t'+e.getKey()+'\t'+(n.superName==null ? "" : n.superName)+'\t'+(n.isInterface ? "I" : "C"));
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (jars) {
+            for (ZipFile z : jars.values())
+                z.close();
+            jars.clear();
+        }
+    }
+}